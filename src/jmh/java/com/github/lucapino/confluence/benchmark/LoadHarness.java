@@ -0,0 +1,322 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.github.lucapino.confluence.AbstractConfluenceMojo;
+import com.github.lucapino.confluence.AddAttachmentConfluenceMojo;
+import com.github.lucapino.confluence.FakeConfluenceServer;
+import com.github.lucapino.confluence.PublishTreeConfluenceMojo;
+import com.github.lucapino.confluence.UpdatePageConfluenceMojo;
+import com.github.lucapino.confluence.client.ClientRegistry;
+import com.github.lucapino.confluence.helpers.Timings;
+import com.github.lucapino.confluence.model.PageDescriptor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives the mojos against a {@link FakeConfluenceServer} and reports the
+ * time taken by each phase, the client timings and what the server saw.
+ * <p>
+ * The scenario is configured with system properties:
+ * <ul>
+ * <li><code>pages</code>: pages of the published tree (200)</li>
+ * <li><code>threads</code>: client threads and connections (8)</li>
+ * <li><code>writers</code>: concurrent update-page executions on one page
+ * (4)</li>
+ * <li><code>modules</code>: reactor modules appending to one page, one by one
+ * and aggregated (10)</li>
+ * <li><code>attachments</code>, <code>attachmentSize</code>: files attached
+ * to a page and their size in bytes (20, 1 MB)</li>
+ * <li><code>latency</code>: server delay of every request in ms (20)</li>
+ * <li><code>throttleRate</code>, <code>retryAfter</code>: fraction of the
+ * requests answered 429 and its delay in seconds (0, -1 for none)</li>
+ * <li><code>failureRate</code>: fraction of the requests answered 500
+ * (0)</li>
+ * <li><code>requestsPerSecond</code>: client rate limit (0, no limit)</li>
+ * <li><code>sessionMillis</code>: lifetime of the server sessions, 0 to
+ * accept requests without logging in (0)</li>
+ * </ul>
+ * Run it with <code>mvn -Pjmh test-compile exec:exec@load-test
+ * -Dload.args="-Dpages=500 -Dlatency=50"</code>.
+ */
+public final class LoadHarness {
+
+    private static final String SPACE = "LOAD";
+    private static final String HOME = "Home";
+
+    private final int pages = Integer.getInteger("pages", 200);
+    private final int threads = Integer.getInteger("threads", 8);
+    private final int writers = Integer.getInteger("writers", 4);
+    private final int modules = Integer.getInteger("modules", 10);
+    private final int attachments = Integer.getInteger("attachments", 20);
+    private final int attachmentSize = Integer.getInteger("attachmentSize", 1024 * 1024);
+    private final double requestsPerSecond = Double.parseDouble(System.getProperty("requestsPerSecond", "0"));
+
+    private final FakeConfluenceServer server;
+    private final File work;
+    private final QuietLog log = new QuietLog();
+
+    private LoadHarness(FakeConfluenceServer server, File work) {
+        this.server = server;
+        this.work = work;
+    }
+
+    public static void main(String[] args) throws Exception {
+        // the REST client logs every request at info
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        File work = Files.createTempDirectory("confluence-load").toFile();
+        try (FakeConfluenceServer server = new FakeConfluenceServer(32)) {
+            server.latency(Long.getLong("latency", 20))
+                    .throttle(Double.parseDouble(System.getProperty("throttleRate", "0")), Integer.getInteger("retryAfter", -1))
+                    .failures(Double.parseDouble(System.getProperty("failureRate", "0")))
+                    .sessions(Long.getLong("sessionMillis", 0));
+            server.addPage(SPACE, HOME, "<p>Home</p>");
+            new LoadHarness(server, work).run();
+            System.out.println(server.getSummary());
+        } finally {
+            ClientRegistry.shutdown();
+            FileUtils.deleteDirectory(work);
+        }
+    }
+
+    private void run() throws Exception {
+        // first, a new session resets the timings
+        File changelog = new File(work, "changelog.vm");
+        Files.write(changelog.toPath(), "<p>Changes of ${project.artifactId}</p>".getBytes(StandardCharsets.UTF_8));
+        phase("update-page, " + modules + " modules one by one", () -> updateFromModules(changelog, false));
+        phase("update-page, " + modules + " modules aggregated", () -> updateFromModules(changelog, true));
+
+        File tree = new File(work, "tree");
+        writeTree(tree, "first");
+        phase("publish-tree, create " + pages + " pages", () -> publishTree(tree));
+        phase("publish-tree, unchanged", () -> publishTree(tree));
+        writeTree(tree, "second");
+        phase("publish-tree, update " + pages + " pages", () -> publishTree(tree));
+
+        File append = new File(work, "append.vm");
+        Files.write(append.toPath(), "<p>appended</p>".getBytes(StandardCharsets.UTF_8));
+        phase(writers + " concurrent update-page on one page", () -> updateConcurrently(append, null));
+        phase(writers + " concurrent update-page on one section", () -> updateConcurrently(append, "changes"));
+
+        File[] files = writeAttachments(new File(work, "attachments"));
+        phase("add-attachment, " + attachments + " files", () -> addAttachments(files, false));
+        phase("add-attachment, unchanged", () -> addAttachments(files, false));
+        phase("add-attachment, incremental first run", () -> addAttachments(files, true));
+        phase("add-attachment, incremental", () -> addAttachments(files, true));
+
+        System.out.println();
+        Timings.getSummary().forEach(System.out::println);
+        System.out.println(log.errors.get() + " mojo error(s)");
+    }
+
+    private void phase(String name, Phase phase) throws Exception {
+        long start = System.nanoTime();
+        phase.run();
+        System.out.printf("%-45s %8.0f ms%n", name, (System.nanoTime() - start) / 1e6);
+    }
+
+    private void publishTree(File tree) throws Exception {
+        PublishTreeConfluenceMojo mojo = configure(new PublishTreeConfluenceMojo());
+        set(mojo, "parent", new PageDescriptor(null, SPACE, HOME));
+        set(mojo, "sourceDirectory", tree);
+        set(mojo, "wikiFormat", Boolean.FALSE);
+        set(mojo, "indexName", "index");
+        set(mojo, "digestFile", new File(work, "page-digests.properties"));
+        mojo.execute();
+    }
+
+    private void updateConcurrently(File template, String section) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                futures.add(pool.submit(() -> {
+                    updatePage(template, section);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void updatePage(File template, String section) throws Exception {
+        UpdatePageConfluenceMojo mojo = configure(new UpdatePageConfluenceMojo());
+        set(mojo, "parent", new PageDescriptor(null, SPACE, HOME));
+        set(mojo, "pageTitle", HOME);
+        set(mojo, "inputFile", template);
+        set(mojo, "wikiFormat", Boolean.FALSE);
+        set(mojo, "append", true);
+        set(mojo, "section", section);
+        set(mojo, "maxConflictRetries", writers * 4);
+        mojo.execute();
+    }
+
+    private void updateFromModules(File template, boolean aggregate) throws Exception {
+        List<MavenProject> projects = new ArrayList<>();
+        for (int i = 0; i < modules; i++) {
+            MavenProject project = new MavenProject();
+            project.setArtifactId("module-" + i);
+            projects.add(project);
+        }
+        MavenSession session = new MavenSession(null, new DefaultMavenExecutionRequest(), new DefaultMavenExecutionResult(), projects);
+        for (MavenProject project : projects) {
+            UpdatePageConfluenceMojo mojo = configure(new UpdatePageConfluenceMojo());
+            set(mojo, "mavenSession", session);
+            set(mojo, "project", project);
+            set(mojo, "parent", new PageDescriptor(null, SPACE, HOME));
+            set(mojo, "pageTitle", HOME);
+            set(mojo, "inputFile", template);
+            set(mojo, "wikiFormat", Boolean.FALSE);
+            set(mojo, "append", true);
+            set(mojo, "aggregate", aggregate);
+            mojo.execute();
+        }
+        // what Maven does when the build ends
+        ClientRegistry.endSession(session);
+    }
+
+    private void addAttachments(File[] files, boolean incremental) throws Exception {
+        AddAttachmentConfluenceMojo mojo = configure(new AddAttachmentConfluenceMojo());
+        set(mojo, "page", new PageDescriptor(null, SPACE, HOME));
+        set(mojo, "attachments", files);
+        set(mojo, "parallelUploads", threads);
+        set(mojo, "skipUnchangedAttachments", true);
+        set(mojo, "incremental", incremental);
+        set(mojo, "digestFile", new File(work, "page-digests.properties"));
+        mojo.execute();
+    }
+
+    private <T extends AbstractConfluenceMojo> T configure(T mojo) throws IllegalAccessException {
+        mojo.setLog(log);
+        set(mojo, "url", server.getUrl());
+        set(mojo, "username", "load");
+        set(mojo, "password", "load");
+        set(mojo, "threads", threads);
+        set(mojo, "requestsPerSecond", requestsPerSecond);
+        set(mojo, "pageCacheTtl", 0L);
+        set(mojo, "conversionCacheDirectory", new File(work, "conversions"));
+        return mojo;
+    }
+
+    private static void set(Object mojo, String field, Object value) throws IllegalAccessException {
+        ReflectionUtils.setVariableValueInObject(mojo, field, value);
+    }
+
+    private void writeTree(File tree, String revision) throws IOException {
+        for (int i = 0; i < pages; i++) {
+            // ten pages per section, the first one is the index of the section
+            File section = new File(tree, "section-" + (i / 10));
+            File page = new File(section, i % 10 == 0 ? "index.vm" : "page-" + i + ".vm");
+            section.mkdirs();
+            StringBuilder content = new StringBuilder("<h1>Page ").append(i).append("</h1>");
+            for (int p = 0; p < 20; p++) {
+                content.append("<p>Paragraph ").append(p).append(" of the ").append(revision).append(" revision.</p>");
+            }
+            Files.write(page.toPath(), content.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private File[] writeAttachments(File directory) throws IOException {
+        directory.mkdirs();
+        File[] files = new File[attachments];
+        byte[] data = new byte[attachmentSize];
+        for (int i = 0; i < attachments; i++) {
+            ThreadLocalRandom.current().nextBytes(data);
+            files[i] = new File(directory, "attachment-" + i + ".bin");
+            Files.write(files[i].toPath(), data);
+        }
+        return files;
+    }
+
+    @FunctionalInterface
+    private interface Phase {
+
+        void run() throws Exception;
+    }
+
+    /**
+     * Keeps the output of the mojos to warnings and errors, counting the
+     * errors.
+     */
+    private static final class QuietLog extends SystemStreamLog {
+
+        private final AtomicInteger errors = new AtomicInteger();
+
+        @Override
+        public void debug(CharSequence content) {
+        }
+
+        @Override
+        public void debug(CharSequence content, Throwable error) {
+        }
+
+        @Override
+        public void debug(Throwable error) {
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        @Override
+        public void info(CharSequence content) {
+        }
+
+        @Override
+        public void info(CharSequence content, Throwable error) {
+        }
+
+        @Override
+        public void info(Throwable error) {
+        }
+
+        @Override
+        public void error(CharSequence content) {
+            errors.incrementAndGet();
+            super.error(content);
+        }
+
+        @Override
+        public void error(CharSequence content, Throwable error) {
+            errors.incrementAndGet();
+            super.error(content, error);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.benchmark;
+
+import com.github.lucapino.confluence.macro.CodeBlockMacro;
+import com.github.lucapino.confluence.macro.JiraIssuesMacro;
+import com.github.lucapino.confluence.macro.TableOfContentsMacro;
+import com.github.lucapino.confluence.util.StringUtils;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Markup generation of the macros and the case conversions of their
+ * parameter names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MacroBenchmark {
+
+    /**
+     * Number of lines of the code block.
+     */
+    @Param({"10", "1000"})
+    private int codeLines;
+
+    private CodeBlockMacro codeBlock;
+    private TableOfContentsMacro tableOfContents;
+    private JiraIssuesMacro jiraIssues;
+
+    @Setup
+    public void setUp() throws MalformedURLException {
+        StringBuilder code = new StringBuilder();
+        for (int i = 0; i < codeLines; i++) {
+            code.append("System.out.println(\"line ").append(i).append(" <&>\");\n");
+        }
+        codeBlock = CodeBlockMacro.builder()
+                .language(CodeBlockMacro.Languages.JAVA)
+                .title("Example")
+                .showLineNumbers()
+                .collapse()
+                .code(code.toString())
+                .build();
+        tableOfContents = TableOfContentsMacro.builder()
+                .outputType(TableOfContentsMacro.OutputType.LIST)
+                .bulletPointStyle(TableOfContentsMacro.ListStyle.DISC)
+                .indentation(TableOfContentsMacro.Indentation.TWENTY_PX)
+                .minHeadingLevel(1)
+                .maxHeadingLevel(4)
+                .enableNumbering()
+                .build();
+        jiraIssues = JiraIssuesMacro.builder()
+                .url(new URL("https://jira.example.com/sr/jira.issueviews:searchrequest-xml/temp/SearchRequest.xml?jqlQuery=project+%3D+CONF"))
+                .columns(JiraIssuesMacro.Columns.values())
+                .count(true)
+                .cache(JiraIssuesMacro.Cache.OFF)
+                .renderMode(JiraIssuesMacro.RenderMode.STATIC)
+                .title("Open issues")
+                .build();
+    }
+
+    @Benchmark
+    public String codeBlockToMarkup() {
+        return codeBlock.toMarkup();
+    }
+
+    @Benchmark
+    public String tableOfContentsToMarkup() {
+        return tableOfContents.toMarkup();
+    }
+
+    @Benchmark
+    public String jiraIssuesToWikiMarkup() {
+        return jiraIssues.toWikiMarkup();
+    }
+
+    @Benchmark
+    public String convertToCamelCase() {
+        return StringUtils.convertToCamelCase("RENDER_MODE_WITH_SEVERAL_PARTS");
+    }
+
+    @Benchmark
+    public String convertToUpperCamel() {
+        return StringUtils.convertToUpperCamel("RENDER_MODE_WITH_SEVERAL_PARTS");
+    }
+}
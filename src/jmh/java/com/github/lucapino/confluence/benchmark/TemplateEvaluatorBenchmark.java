@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.benchmark;
+
+import com.github.lucapino.confluence.helpers.TemplateEvaluator;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Template evaluation, from a cached template file and from a string, with
+ * templates of growing size and contexts with many properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateEvaluatorBenchmark {
+
+    /**
+     * Number of sections of the template, each using a few properties.
+     */
+    @Param({"10", "1000"})
+    private int sections;
+
+    /**
+     * Number of properties in the context.
+     */
+    @Param({"10", "1000"})
+    private int properties;
+
+    private TemplateEvaluator evaluator;
+    private HashMap<Object, Object> context;
+    private String text;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        evaluator = new TemplateEvaluator(null);
+        context = new HashMap<>();
+        for (int i = 0; i < properties; i++) {
+            context.put("property" + i, "value " + i);
+        }
+        StringBuilder template = new StringBuilder();
+        for (int i = 0; i < sections; i++) {
+            int property = i % properties;
+            template.append("h2. Section ").append(i).append('\n')
+                    .append("The value of property").append(property).append(" is ${property").append(property).append("}.\n")
+                    .append("#if($property").append(property).append(")* defined#else* undefined#end\n")
+                    .append("#foreach($n in [1..3])| $n | ${property").append(property).append("} |\n#end\n");
+        }
+        text = template.toString();
+        file = File.createTempFile("benchmark", ".vm");
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String evaluateFile() throws FileNotFoundException, UnsupportedEncodingException {
+        return evaluator.evaluate(file, context);
+    }
+
+    @Benchmark
+    public String evaluateText() {
+        return evaluator.evaluate(text, context);
+    }
+}
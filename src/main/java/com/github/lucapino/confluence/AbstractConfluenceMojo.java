@@ -16,19 +16,40 @@
  */
 package com.github.lucapino.confluence;
 
+import com.github.lucapino.confluence.client.ClientRegistry;
+import com.github.lucapino.confluence.client.ConfluenceClient;
+import com.github.lucapino.confluence.client.PooledHttpRequestService;
+import com.github.lucapino.confluence.client.RestErrors;
+import com.github.lucapino.confluence.client.WikiConverter;
+import com.github.lucapino.confluence.helpers.ChangePlan;
+import com.github.lucapino.confluence.helpers.ContentDigest;
+import com.github.lucapino.confluence.helpers.ConversionCache;
+import com.github.lucapino.confluence.helpers.DigestStore;
+import com.github.lucapino.confluence.helpers.PageIdCache;
 import com.github.lucapino.confluence.helpers.TemplateEvaluator;
+import com.github.lucapino.confluence.helpers.Timings;
+import com.github.lucapino.confluence.model.PageDescriptor;
+import com.github.lucapino.confluence.model.PageFields;
 import com.github.lucapino.confluence.rest.client.api.ClientFactory;
-import com.github.lucapino.confluence.rest.client.impl.ClientFactoryImpl;
-import com.github.lucapino.confluence.rest.core.impl.APIUriProvider;
-import com.github.lucapino.confluence.rest.core.impl.HttpAuthRequestService;
+import com.github.lucapino.confluence.rest.core.api.domain.content.ContentBean;
+import com.github.lucapino.confluence.rest.core.api.domain.content.ContentResultsBean;
+import com.github.lucapino.confluence.rest.core.api.misc.ContentType;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.URI;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang.StringUtils;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -78,6 +99,11 @@ public abstract class AbstractConfluenceMojo extends AbstractMojo {
      */
     @Parameter(defaultValue = "${scmPassword}")
     protected String password;
+    /**
+     * Confluence personal access token, sent instead of the user and password.
+     */
+    @Parameter(property = "confluence.personalAccessToken")
+    protected String personalAccessToken;
     /**
      * The Maven project
      */
@@ -106,8 +132,145 @@ public abstract class AbstractConfluenceMojo extends AbstractMojo {
     @Parameter(defaultValue = "false")
     protected boolean verbose;
 
+    /**
+     * Maximum number of concurrent requests (and pooled connections) to the
+     * Confluence server. The connection pool is shared by all the executions
+     * of the build using the same url, server id and username.
+     */
+    @Parameter(property = "confluence.threads", defaultValue = "4")
+    protected int threads = 4;
+
+    /**
+     * Maximum sustained rate of requests per second to the Confluence
+     * server, shared by all the executions using the same connection pool.
+     * Set to 0 for no limit.
+     */
+    @Parameter(property = "confluence.requestsPerSecond", defaultValue = "0")
+    protected double requestsPerSecond;
+
+    /**
+     * Number of requests that can be sent at once after an idle period when
+     * <code>requestsPerSecond</code> is set.
+     */
+    @Parameter(property = "confluence.requestBurst", defaultValue = "10")
+    protected int requestBurst = 10;
+
+    /**
+     * How many times a request throttled by the server (429 or 503) is sent
+     * again, after the delay asked by its <code>Retry-After</code> header or
+     * an exponential backoff.
+     */
+    @Parameter(property = "confluence.throttleRetries", defaultValue = "5")
+    protected int throttleRetries = 5;
+
+    /**
+     * Maximum number of retries when a page is modified by someone else
+     * between the time it is read and the time it is updated. Each retry
+     * reloads the page; <code>update-page</code> applies
+     * <code>append</code> or <code>prepend</code> to its latest content.
+     */
+    @Parameter(property = "confluence.maxConflictRetries", defaultValue = "5")
+    protected int maxConflictRetries = 5;
+
+    /**
+     * File caching the ids of the pages looked up by space and title, so
+     * that later builds can address them directly.
+     */
+    @Parameter(property = "confluence.pageCacheFile", defaultValue = "${user.home}/.m2/confluence/page-ids.properties")
+    protected File pageCacheFile;
+
+    /**
+     * Time to live, in seconds, of the cached page ids. Set to 0 to disable
+     * the cache.
+     */
+    @Parameter(property = "confluence.pageCacheTtl", defaultValue = "86400")
+    protected long pageCacheTtl = 86400;
+
+    /**
+     * Directory caching the conversions of wiki markup to storage format, so
+     * that unchanged wiki pages are not converted again by later builds.
+     */
+    @Parameter(property = "confluence.conversionCacheDirectory", defaultValue = "${user.home}/.m2/confluence/conversions")
+    protected File conversionCacheDirectory;
+
+    /**
+     * Convert the common wiki markup (headings, lists, tables, links, code,
+     * toc, expand and jiraissues macros) locally, calling the server only for
+     * the pages using other constructs. Off by default, so that the server
+     * stays the reference converter unless asked otherwise.
+     */
+    @Parameter(property = "confluence.localWikiConversion", defaultValue = "false")
+    protected boolean localWikiConversion;
+
+    /**
+     * Only upload the attachments missing from the page or whose content
+     * changed. The SHA-256 of each uploaded file is kept in its attachment
+     * comment to tell them apart.
+     */
+    @Parameter(property = "confluence.skipUnchangedAttachments", defaultValue = "false")
+    protected boolean skipUnchangedAttachments;
+
+    /**
+     * Formats of the timing report written to the build directory at the end
+     * of the build, a comma separated list of <code>json</code> and
+     * <code>csv</code>. The summary table is always logged.
+     */
+    @Parameter(property = "confluence.timingReport", defaultValue = "")
+    protected String timingReport;
+
+    /**
+     * Only plan the changes: pages and attachments are looked up, but nothing
+     * is written to the server. The planned changes, with the requests and
+     * bytes they need, are logged and written to
+     * <code>confluence-plan.json</code> in the build directory.
+     */
+    @Parameter(property = "confluence.dryRun", defaultValue = "false")
+    protected boolean dryRun;
+
+    /**
+     * Skip the pages and attachments whose inputs (template,
+     * <code>announceParameters</code>, project properties, attached files)
+     * did not change since they were last published from this build
+     * directory, without rendering them or calling the server. Changes made
+     * on the server in the meantime are not detected, and an appending
+     * update is not repeated.
+     */
+    @Parameter(property = "confluence.incremental", defaultValue = "false")
+    protected boolean incremental;
+
+    /**
+     * File storing the digests of the content published from this build
+     * directory and of the inputs it was produced from, read and written by
+     * <code>skipUnchanged</code> and incremental builds.
+     */
+    @Parameter(property = "confluence.digestFile", defaultValue = "${project.build.directory}/confluence/page-digests.properties")
+    protected File digestFile;
+
+    /**
+     * Number of version conflicts met in this build.
+     */
+    private static final AtomicInteger VERSION_CONFLICTS = new AtomicInteger();
+
+    /**
+     * Number of updates retried in this build after a version conflict.
+     */
+    private static final AtomicInteger CONFLICT_RETRIES = new AtomicInteger();
+
+    /**
+     * Delay before the first retry after a version conflict, doubled at each
+     * retry.
+     */
+    private static final long CONFLICT_BACKOFF_MILLIS = 250;
+
+    /**
+     * Upper bound of the delay between two retries.
+     */
+    private static final long MAX_CONFLICT_BACKOFF_MILLIS = 5000;
+
     private TemplateEvaluator evaluator;
-    private ClientFactory factory;
+    private ConfluenceClient client;
+    private WikiConverter wikiConverter;
+    private DigestStore digests;
 
     public AbstractConfluenceMojo() {
     }
@@ -116,8 +279,25 @@ public abstract class AbstractConfluenceMojo extends AbstractMojo {
         this.serverId = mojo.serverId;
         this.url = mojo.url;
         this.project = mojo.project;
+        this.username = mojo.username;
+        this.password = mojo.password;
+        this.personalAccessToken = mojo.personalAccessToken;
+        this.threads = mojo.threads;
+        this.requestsPerSecond = mojo.requestsPerSecond;
+        this.requestBurst = mojo.requestBurst;
+        this.throttleRetries = mojo.throttleRetries;
+        this.maxConflictRetries = mojo.maxConflictRetries;
+        this.pageCacheFile = mojo.pageCacheFile;
+        this.pageCacheTtl = mojo.pageCacheTtl;
+        this.conversionCacheDirectory = mojo.conversionCacheDirectory;
+        this.localWikiConversion = mojo.localWikiConversion;
+        this.skipUnchangedAttachments = mojo.skipUnchangedAttachments;
+        this.dryRun = mojo.dryRun;
+        this.incremental = mojo.incremental;
+        this.digestFile = mojo.digestFile;
+        this.digests = mojo.digests;
         this.evaluator = mojo.evaluator;
-        this.factory = mojo.factory;
+        this.client = mojo.client;
     }
 
     public TemplateEvaluator getEvaluator() {
@@ -130,21 +310,215 @@ public abstract class AbstractConfluenceMojo extends AbstractMojo {
     }
 
     public ClientFactory getClientFactory() throws MojoFailureException {
-        if (factory == null) {
+        return getClient().getClientFactory();
+    }
+
+    public ConfluenceClient getClient() throws MojoFailureException {
+        if (client == null) {
             loadUserCredentials();
             getLog().debug("Connecting to Confluence server");
             try {
-                HttpAuthRequestService requestService = new HttpAuthRequestService();
-                requestService.connect(new URI(url), username, password);
-                APIUriProvider uriProvider = new APIUriProvider(new URI(url));
-                ExecutorService executorService = Executors.newCachedThreadPool();
-                factory = new ClientFactoryImpl(executorService, requestService, uriProvider);
+                client = ClientRegistry.getClient(mavenSession, url, serverId, username, password, personalAccessToken, threads);
+                client.getRequestService().setThrottling(requestsPerSecond, requestBurst, throttleRetries);
+                if (client.getThreads() != Math.max(1, threads)) {
+                    getLog().warn("Ignoring threads=" + threads + ", the Confluence client of this build already uses "
+                            + client.getThreads() + " thread(s)");
+                }
                 getLog().info("Successfuly connected to Confluence server");
             } catch (Exception e) {
-                getLog().error("Unable to connect to Confluence server", e);
+                throw fail("Unable to connect to Confluence server", e);
             }
         }
-        return factory;
+        return client;
+    }
+
+    /**
+     * @return the converter of wiki markup, limited to <code>threads</code>
+     * concurrent conversions.
+     *
+     * @throws MojoFailureException if the client cannot be created.
+     */
+    protected WikiConverter getWikiConverter() throws MojoFailureException {
+        if (wikiConverter == null) {
+            wikiConverter = new WikiConverter(getClient(), url, ConversionCache.forDirectory(conversionCacheDirectory), threads,
+                    localWikiConversion);
+        }
+        return wikiConverter;
+    }
+
+    /**
+     * @return the page id cache, or {@code null} if disabled.
+     *
+     * @throws IOException if the cache cannot be read.
+     */
+    protected PageIdCache getPageIdCache() throws IOException {
+        if (pageCacheFile == null || pageCacheTtl <= 0) {
+            return null;
+        }
+        return PageIdCache.forFile(pageCacheFile, pageCacheTtl);
+    }
+
+    /**
+     * @return the store of the published digests, shared by the executions
+     * derived from this one.
+     *
+     * @throws IOException if the store cannot be read.
+     */
+    protected DigestStore getDigestStore() throws IOException {
+        if (digests == null) {
+            digests = new DigestStore(digestFile);
+        }
+        return digests;
+    }
+
+    /**
+     * @return the store of the published digests, or {@code null} if the
+     * build is not incremental.
+     *
+     * @throws IOException if the store cannot be read.
+     */
+    protected DigestStore getIncrementalDigests() throws IOException {
+        return incremental && digestFile != null ? getDigestStore() : null;
+    }
+
+    /**
+     * Digests what rendering a template depends on: its content, the
+     * <code>announceParameters</code> and the project coordinates and
+     * properties.
+     *
+     * @param template the template.
+     *
+     * @return the inputs, or {@code null} if they cannot be tracked because
+     * the template includes other files.
+     *
+     * @throws IOException if the template cannot be read.
+     */
+    protected DigestStore.Inputs templateInputs(File template) throws IOException {
+        byte[] content = Files.readAllBytes(template.toPath());
+        String text = new String(content, StandardCharsets.UTF_8);
+        if (text.contains("#parse") || text.contains("#include")) {
+            return null;
+        }
+        DigestStore.Inputs inputs = new DigestStore.Inputs()
+                .add("url", url)
+                .add("template", ContentDigest.sha256(content))
+                .addAll("announceParameters", announceParameters);
+        if (project != null) {
+            inputs.add("project", project.getGroupId() + ":" + project.getArtifactId() + ":" + project.getVersion())
+                    .add("name", project.getName())
+                    .add("description", project.getDescription())
+                    .addAll("property", project.getProperties());
+        }
+        return inputs;
+    }
+
+    /**
+     * Resolves a page descriptor. Absolute descriptors are used as they are
+     * when only the id is needed, relative ones go through the page id cache
+     * before falling back to a lookup by space and title.
+     *
+     * @param page the page descriptor.
+     * @param fields the fields of the page needed by the caller.
+     *
+     * @return the page, with at least its id.
+     *
+     * @throws Exception if the page cannot be found.
+     */
+    protected ContentBean findPage(PageDescriptor page, PageFields fields) throws Exception {
+        if (page.isAbsolute()) {
+            if (!fields.isFetch()) {
+                return new ContentBean(page.getId());
+            }
+            return getClientFactory().getContentClient().getContentById(page.getId(), 0, fields.getExpand()).get();
+        }
+        ContentBean content = lookupPage(page.getSpace(), page.getTitle(), fields);
+        if (content == null) {
+            throw new MojoFailureException("Page '" + page.getTitle() + "' not found in space " + page.getSpace());
+        }
+        return content;
+    }
+
+    /**
+     * Looks a page up by space and title, going through the page id cache.
+     *
+     * @param space the space key.
+     * @param title the page title.
+     * @param fields the fields of the page needed by the caller.
+     *
+     * @return the page, or {@code null} if it does not exist.
+     *
+     * @throws Exception if the lookup fails.
+     */
+    protected ContentBean lookupPage(String space, String title, PageFields fields) throws Exception {
+        PageIdCache cache = getPageIdCache();
+        PageIdCache.Entry entry = cache != null ? cache.get(url, space, title) : null;
+        if (entry != null) {
+            getLog().debug("Page '" + title + "' resolved from cache to id " + entry.getId());
+            if (!fields.isFetch()) {
+                return new ContentBean(entry.getId());
+            }
+            try {
+                ContentBean content = getClientFactory().getContentClient().getContentById(entry.getId(), 0, fields.getExpand()).get();
+                cache.put(url, space, title, content.getId(), content.getVersion() != null ? content.getVersion().getNumber() : null);
+                return content;
+            } catch (ExecutionException e) {
+                if (!RestErrors.isNotFound(e)) {
+                    throw e;
+                }
+                getLog().debug("Cached id of page '" + title + "' is stale");
+                cache.invalidate(url, space, title);
+            }
+        }
+        ContentResultsBean result = getClientFactory().getContentClient().getContent(ContentType.PAGE, space, title, null, null, fields.getExpand(), 0, 1).get();
+        if (result.getResults() == null || result.getResults().isEmpty()) {
+            return null;
+        }
+        ContentBean content = result.getResults().get(0);
+        if (cache != null) {
+            cache.put(url, space, title, content.getId(), content.getVersion() != null ? content.getVersion().getNumber() : null);
+        }
+        return content;
+    }
+
+    /**
+     * Runs an operation against a page. If the id of the page came from the
+     * cache and the server answers 404, the entry is dropped and the operation
+     * is retried once with a fresh lookup.
+     *
+     * @param <T> the result type of the operation.
+     * @param page the page descriptor.
+     * @param fields the fields of the page needed by the operation.
+     * @param operation the operation to run.
+     *
+     * @return the result of the operation.
+     *
+     * @throws Exception if the page cannot be found or the operation fails.
+     */
+    protected <T> T withPage(PageDescriptor page, PageFields fields, PageOperation<T> operation) throws Exception {
+        ContentBean content = findPage(page, fields);
+        try {
+            return operation.apply(content);
+        } catch (Exception e) {
+            if (page.isAbsolute() || !RestErrors.isNotFound(e)) {
+                throw e;
+            }
+            invalidatePage(page);
+            return operation.apply(findPage(page, fields));
+        }
+    }
+
+    /**
+     * Drops the cached id of a page.
+     *
+     * @param page the page descriptor.
+     *
+     * @throws IOException if the cache cannot be read.
+     */
+    protected void invalidatePage(PageDescriptor page) throws IOException {
+        PageIdCache cache = getPageIdCache();
+        if (cache != null && !page.isAbsolute()) {
+            cache.invalidate(url, page.getSpace(), page.getTitle());
+        }
     }
 
     private void loadUserCredentials() {
@@ -183,14 +557,174 @@ public abstract class AbstractConfluenceMojo extends AbstractMojo {
             try {
                 loadUserCredentials();
                 doExecute();
+            } catch (MojoExecutionException e) {
+                // reserved to the failures that must fail the build
+                log.error("Error when executing mojo", e);
+                throw e;
             } catch (Exception e) {
                 log.error("Error when executing mojo", e);
+            } finally {
+                try {
+                    PageIdCache.saveAll();
+                } catch (IOException e) {
+                    log.warn("Unable to save the page id cache: " + e.getMessage());
+                }
+                if (wikiConverter != null) {
+                    log.debug(wikiConverter.getSummary());
+                }
+                if (evaluator != null) {
+                    log.debug("Template cache: " + TemplateEvaluator.getCacheHits() + " hit(s), "
+                            + TemplateEvaluator.getCacheMisses() + " miss(es)");
+                }
+                if (client != null) {
+                    PooledHttpRequestService requests = client.getRequestService();
+                    log.debug("Throttling: " + requests.getThrottledCount() + " throttled response(s), "
+                            + requests.getRetriedCount() + " retried request(s)");
+                    log.debug("Authentication: " + requests.getLoginCount() + " login(s), "
+                            + requests.getSessionRefreshCount() + " expired session(s)");
+                }
+                // reported once, when the build ends, in the module of the last execution
+                ClientRegistry.atSessionEnd(mavenSession, "timings", this::reportTimings);
+                ClientRegistry.atSessionEnd(mavenSession, "plan", this::reportPlan);
             }
         }
     }
 
     public abstract void doExecute() throws Exception;
 
+    private void reportTimings() {
+        if (Timings.isEmpty()) {
+            return;
+        }
+        Log log = getLog();
+        log.info("Confluence timings:");
+        for (String line : Timings.getSummary()) {
+            log.info(line);
+        }
+        if (StringUtils.isBlank(timingReport) || project == null) {
+            return;
+        }
+        File directory = new File(project.getBuild().getDirectory());
+        for (String format : timingReport.split(",")) {
+            File file = new File(directory, "confluence-timings." + format.trim().toLowerCase(Locale.ROOT));
+            try {
+                if ("json".equalsIgnoreCase(format.trim())) {
+                    Timings.writeJson(file);
+                } else if ("csv".equalsIgnoreCase(format.trim())) {
+                    Timings.writeCsv(file);
+                } else {
+                    log.warn("Unknown timing report format: " + format);
+                    continue;
+                }
+                log.info("Timing report written to " + file);
+            } catch (IOException e) {
+                log.warn("Unable to write " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void reportPlan() {
+        if (ChangePlan.isEmpty()) {
+            return;
+        }
+        Log log = getLog();
+        log.info("Confluence dry run plan:");
+        for (String line : ChangePlan.getSummary()) {
+            log.info(line);
+        }
+        if (project == null) {
+            return;
+        }
+        File file = new File(project.getBuild().getDirectory(), "confluence-plan.json");
+        try {
+            ChangePlan.writeJson(file);
+            log.info("Plan written to " + file);
+        } catch (IOException e) {
+            log.warn("Unable to write " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Records a change planned by a dry run.
+     *
+     * @param action the change, i.e. <code>update-page</code>.
+     * @param target what is changed.
+     * @param requests the number of requests the change needs.
+     * @param bytes the estimated bytes to send.
+     */
+    protected void plan(String action, String target, int requests, long bytes) {
+        getLog().info("[dry run] " + action + " " + target + " (" + requests + " request(s), " + bytes + " byte(s))");
+        ChangePlan.add(action, target, requests, bytes);
+    }
+
+    /**
+     * @param space the space key.
+     * @param title the page title.
+     *
+     * @return the name of a page in the plan.
+     */
+    protected static String planTarget(String space, String title) {
+        return space + "/" + title;
+    }
+
+    /**
+     * @param page the page descriptor.
+     *
+     * @return the name of a page in the plan, its id if it has no title.
+     */
+    protected static String planTarget(PageDescriptor page) {
+        return page.getTitle() != null ? planTarget(page.getSpace(), page.getTitle()) : page.getId();
+    }
+
+    /**
+     * @param content the content of a page.
+     *
+     * @return the bytes sent to publish {@code content}.
+     */
+    protected static long sizeOf(String content) {
+        return content == null ? 0 : content.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Waits before an update of a page refused because of a version conflict
+     * is retried on the latest version of the page.
+     *
+     * @param e the failure of the update.
+     * @param title the page title.
+     * @param version the version the update tried to create.
+     * @param attempt the number of retries so far.
+     *
+     * @throws Exception {@code e} if it is not a version conflict, or a
+     * {@link MojoFailureException} once <code>maxConflictRetries</code> are
+     * exhausted.
+     */
+    protected void awaitConflictRetry(ExecutionException e, String title, int version, int attempt) throws Exception {
+        if (!RestErrors.isConflict(e)) {
+            throw e;
+        }
+        VERSION_CONFLICTS.incrementAndGet();
+        if (attempt >= maxConflictRetries) {
+            throw fail("Page '" + title + "' keeps being modified concurrently, giving up after " + attempt + " retries", e);
+        }
+        long delay = backoff(attempt);
+        getLog().warn("Version " + version + " of page '" + title + "' already exists, retrying in " + delay + " ms");
+        CONFLICT_RETRIES.incrementAndGet();
+        Thread.sleep(delay);
+    }
+
+    /**
+     * @return the version conflicts and retries of the build so far.
+     */
+    protected static String conflictSummary() {
+        return VERSION_CONFLICTS.get() + " conflict(s), " + CONFLICT_RETRIES.get() + " retries in this build";
+    }
+
+    private static long backoff(int attempt) {
+        long delay = Math.min(CONFLICT_BACKOFF_MILLIS << Math.min(attempt, 16), MAX_CONFLICT_BACKOFF_MILLIS);
+        // jitter, so that the competing builds do not retry in lockstep
+        return delay + ThreadLocalRandom.current().nextLong(CONFLICT_BACKOFF_MILLIS);
+    }
+
     protected MojoFailureException fail(String message, Exception e) {
         getLog().error(message, e);
         return new MojoFailureException(e, message, e.getMessage());
@@ -215,9 +749,36 @@ public abstract class AbstractConfluenceMojo extends AbstractMojo {
         return result;
     }
 
+    /**
+     * An operation on a resolved page.
+     *
+     * @param <T> the result type.
+     */
+    @FunctionalInterface
+    protected interface PageOperation<T> {
+
+        T apply(ContentBean page) throws Exception;
+    }
+
     protected String processContent(File inputFile) throws FileNotFoundException, UnsupportedEncodingException {
         HashMap parameters = new HashMap();
         parameters.put("announceParameters", announceParameters);
         return getEvaluator().evaluate(inputFile, parameters);
     }
+
+    /**
+     * Renders several templates on the executor of the Confluence client.
+     */
+    protected Map<File, String> processContents(Collection<File> inputFiles)
+            throws FileNotFoundException, UnsupportedEncodingException, InterruptedException, MojoFailureException {
+        HashMap parameters = new HashMap();
+        parameters.put("announceParameters", announceParameters);
+        return getEvaluator().evaluateAll(inputFiles, parameters, getClient().getExecutorService());
+    }
+
+    protected void processContent(File inputFile, Writer writer) throws FileNotFoundException, UnsupportedEncodingException {
+        HashMap parameters = new HashMap();
+        parameters.put("announceParameters", announceParameters);
+        getEvaluator().evaluate(inputFile, parameters, writer);
+    }
 }
@@ -16,18 +16,18 @@
  */
 package com.github.lucapino.confluence;
 
+import com.github.lucapino.confluence.client.AttachmentUploader;
+import com.github.lucapino.confluence.client.RestErrors;
+import com.github.lucapino.confluence.helpers.DigestStore;
+import com.github.lucapino.confluence.helpers.UploadState;
 import com.github.lucapino.confluence.model.PageDescriptor;
-import com.github.lucapino.confluence.rest.core.api.domain.content.AncestorBean;
-import com.github.lucapino.confluence.rest.core.api.domain.content.AttachmentBean;
+import com.github.lucapino.confluence.model.PageFields;
 import com.github.lucapino.confluence.rest.core.api.domain.content.ContentBean;
-import com.github.lucapino.confluence.rest.core.api.domain.content.ContentResultsBean;
-import com.github.lucapino.confluence.rest.core.api.domain.space.SpaceBean;
-import com.github.lucapino.confluence.rest.core.api.misc.ContentType;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -54,6 +54,34 @@ public class AddAttachmentConfluenceMojo extends AbstractConfluenceMojo {
      */
     @Parameter(required = true)
     private File[] attachments;
+    /**
+     * Number of attachments uploaded concurrently. Values greater than
+     * <code>threads</code> are capped by the size of the connection pool.
+     */
+    @Parameter(property = "confluence.parallelUploads", defaultValue = "1")
+    private int parallelUploads = 1;
+    /**
+     * How many times the upload of a single attachment is retried before
+     * giving up.
+     */
+    @Parameter(property = "confluence.uploadRetries", defaultValue = "2")
+    private int uploadRetries = 2;
+    /**
+     * Compress text attachments (html, xml, json, csv, logs...) at least this
+     * large with gzip while uploading them. The request is sent with
+     * <code>Content-Encoding: gzip</code>, so the attachments keep their name
+     * and type; the server, or the proxy in front of it, must decode
+     * compressed requests. Set to -1 to never compress.
+     */
+    @Parameter(property = "confluence.compressionThreshold", defaultValue = "-1")
+    private long compressionThreshold = -1;
+    /**
+     * File recording the attachments already uploaded while a set has not
+     * been completely uploaded, so that a new run resumes a failed one.
+     * Leave empty to always upload every attachment.
+     */
+    @Parameter(property = "confluence.uploadStateFile", defaultValue = "${project.build.directory}/confluence/upload-state.properties")
+    private File uploadStateFile;
 
     public AddAttachmentConfluenceMojo() {
         super();
@@ -72,37 +100,126 @@ public class AddAttachmentConfluenceMojo extends AbstractConfluenceMojo {
         if (runOnlyAtExecutionRoot && !isThisTheExecutionRoot()) {
             log.info("Skipping the announcement mail in this project because it's not the Execution Root");
         } else {
-            for (File file : attachments) {
-                addAttachment(page, file);
+            DigestStore digests;
+            try {
+                digests = getIncrementalDigests();
+            } catch (IOException e) {
+                throw fail("Unable to read the published digests", e);
+            }
+            File[] files = attachments;
+            if (digests != null) {
+                List<File> pending = new ArrayList<>();
+                for (File file : attachments) {
+                    if (digests.isUpToDate(keyOf(file), inputsOf(file))) {
+                        log.debug("Skipping " + file.getName() + ", not modified since the last build");
+                        if (dryRun) {
+                            plan("skip-attachment", planTarget(page) + "/" + file.getName(), 0, 0);
+                        }
+                    } else {
+                        pending.add(file);
+                    }
+                }
+                files = pending.toArray(new File[0]);
+                if (files.length < attachments.length) {
+                    log.info((attachments.length - files.length) + " attachment(s) not modified since the last build");
+                }
+                if (files.length == 0) {
+                    return;
+                }
+            }
+            if (dryRun) {
+                planUpload(files);
+                return;
+            }
+            AttachmentUploader.Result result = upload(files);
+            if (!page.isAbsolute() && !result.getFailures().isEmpty()
+                    && result.getFailures().values().stream().allMatch(RestErrors::isNotFound)) {
+                // the cached id of the page is stale
+                log.debug("Page '" + page.getTitle() + "' not found by id, looking it up again");
+                try {
+                    invalidatePage(page);
+                } catch (IOException e) {
+                    throw fail("Unable to update page cache", e);
+                }
+                result = upload(result.getFailures().keySet().toArray(new File[0]));
+            }
+            log.info(result.getSummary());
+            if (digests != null) {
+                for (File file : files) {
+                    if (!result.getFailures().containsKey(file)) {
+                        digests.put(keyOf(file), null, null, inputsOf(file), null);
+                    }
+                }
+                try {
+                    digests.save();
+                } catch (IOException e) {
+                    log.warn("Unable to write the published digests: " + e.getMessage());
+                }
+            }
+            if (!result.getFailures().isEmpty()) {
+                Map.Entry<File, Exception> failure = result.getFailures().entrySet().iterator().next();
+                throw fail("Unable to upload " + result.getFailures().size() + " attachment(s)", failure.getValue());
             }
         }
     }
 
-    private void addAttachment(PageDescriptor page, File file) throws MojoFailureException {
+    private AttachmentUploader.Result upload(File[] files) throws MojoFailureException {
+        ContentBean parent;
         try {
-            // configure page
-            ContentResultsBean contentResult = getClientFactory().getContentClient().getContent(ContentType.PAGE, page.getSpace(), page.getTitle(), null, null, null, 0, 0).get();
-            // getContentBySpaceKeyAndTitle(page.getSpace(), page.getTitle());
-            ContentBean parent = contentResult.getResults().get(0);
-            AttachmentBean attachment = new AttachmentBean(file, null);
-            attachment.setSpace(new SpaceBean(page.getSpace()));
-            attachment.setTitle(page.getTitle());
-            List<AncestorBean> ancestors = new ArrayList<>();
-            AncestorBean ancestor = new AncestorBean();
-            ancestor.setId(parent.getId());
-            ancestors.add(ancestor);
-            attachment.setAncestors(ancestors);
-            
-            //Content content = new Content();
-            // content.setType(Type.ATTACHMENT);
-            // content.setSpace(new Space(page.getSpace()));
-            //content.setTitle(page.getTitle());
-            //content.setAncestors(new Parent[]{parentPage});
-            // content.setBody(new Body(new Storage(FileUtils.readFileToString(file), Storage.Representation.STORAGE.toString())));
-            getClientFactory().getContentClient().uploadAttachment(attachment, parent);
-            // postContent(content);
-        } catch (ExecutionException | InterruptedException | IOException e) {
+            parent = findPage(page, PageFields.ID);
+        } catch (Exception e) {
             throw fail("Unable to upload attachment", e);
         }
+        try {
+            return newUploader().upload(parent, files, comment);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw fail("Interrupted while uploading attachments", e);
+        }
+    }
+
+    /**
+     * Records the uploads a real run would do: one request and the size of
+     * the file for each attachment to send, compressed ones included.
+     */
+    private void planUpload(File[] files) throws MojoFailureException {
+        try {
+            ContentBean parent = findPage(page, PageFields.ID);
+            for (AttachmentUploader.Planned planned : newUploader().plan(parent, files)) {
+                String action = planned.getAction() == AttachmentUploader.Planned.Action.UPDATE ? "update-attachment"
+                        : planned.isSent() ? "upload-attachment" : "skip-attachment";
+                plan(action, planTarget(page) + "/" + planned.getName(), planned.isSent() ? 1 : 0,
+                        planned.isSent() ? planned.getFile().length() : 0);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw fail("Interrupted while planning attachments", e);
+        } catch (Exception e) {
+            throw fail("Unable to plan attachments", e);
+        }
+    }
+
+    private String keyOf(File file) {
+        String target = page.isAbsolute() ? page.getId() : page.getSpace() + "|" + page.getTitle();
+        return "attachment|" + url + "|" + target + "|" + file.getAbsolutePath();
+    }
+
+    private String inputsOf(File file) {
+        return new DigestStore.Inputs()
+                .addStamp("file", file)
+                .add("comment", comment)
+                .add("compressionThreshold", compressionThreshold)
+                .digest();
+    }
+
+    private AttachmentUploader newUploader() throws MojoFailureException {
+        try {
+            return new AttachmentUploader(getClient(), parallelUploads, uploadRetries, getLog())
+                    .resumeFrom(uploadStateFile == null ? null : new UploadState(uploadStateFile))
+                    .skipUnchanged(skipUnchangedAttachments)
+                    .compressAbove(compressionThreshold);
+        } catch (IOException e) {
+            throw fail("Unable to read upload state", e);
+        }
     }
 }
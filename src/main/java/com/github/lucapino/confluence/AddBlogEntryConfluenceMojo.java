@@ -59,6 +59,10 @@ public class AddBlogEntryConfluenceMojo extends AbstractConfluenceMojo {
         } else {// parse template
             String evaluate = processContent(entryFile);
             try {
+                if (dryRun) {
+                    plan("add-blogpost", planTarget(space, entryTitle), 1, sizeOf(evaluate));
+                    return;
+                }
                 // configure page
                 ContentBean blog = new ContentBean();
                 blog.setType(ContentType.BLOGPOST.getName());
@@ -17,12 +17,11 @@
 package com.github.lucapino.confluence;
 
 import com.github.lucapino.confluence.model.PageDescriptor;
+import com.github.lucapino.confluence.model.PageFields;
 import com.github.lucapino.confluence.model.Storage;
 import com.github.lucapino.confluence.rest.core.api.domain.content.AncestorBean;
 import com.github.lucapino.confluence.rest.core.api.domain.content.BodyBean;
 import com.github.lucapino.confluence.rest.core.api.domain.content.CommentBean;
-import com.github.lucapino.confluence.rest.core.api.domain.content.ContentBean;
-import com.github.lucapino.confluence.rest.core.api.domain.content.ContentResultsBean;
 import com.github.lucapino.confluence.rest.core.api.domain.content.StorageBean;
 import com.github.lucapino.confluence.rest.core.api.domain.space.SpaceBean;
 import com.github.lucapino.confluence.rest.core.api.misc.ContentType;
@@ -62,25 +61,29 @@ public class AddCommentConfluenceMojo extends AbstractConfluenceMojo {
         } else {// parse template
             String evaluate = processContent(commentBody);
             try {
+                if (dryRun) {
+                    findPage(page, PageFields.ID);
+                    plan("add-comment", planTarget(page), 1, sizeOf(evaluate));
+                    return;
+                }
                 // configure page
-                ContentResultsBean contentResult = getClientFactory().getContentClient().getContent(ContentType.PAGE, page.getSpace(), page.getTitle(), null, null, null, 0, 0).get();
-                ContentBean parent = contentResult.getResults().get(0);
-                CommentBean comment = new CommentBean();
-                comment.setSpace(new SpaceBean(page.getSpace()));
-                comment.setType(ContentType.COMMENT.getName());
-                List<AncestorBean> ancestors = new ArrayList<>();
-                AncestorBean ancestor = new AncestorBean();
-                ancestor.setId(parent.getId());
-                ancestors.add(ancestor);
-                comment.setAncestors(ancestors);
-                BodyBean body = new BodyBean();
-                StorageBean storage = new StorageBean();
-                storage.setRepresentation(Storage.Representation.STORAGE.toString());
-                storage.setValue(evaluate);
-                body.setStorage(storage);
-                comment.setBody(body);      
-                getClientFactory().getContentClient().createComment(comment);
-                
+                withPage(page, PageFields.ID, parent -> {
+                    CommentBean comment = new CommentBean();
+                    comment.setSpace(new SpaceBean(page.getSpace()));
+                    comment.setType(ContentType.COMMENT.getName());
+                    List<AncestorBean> ancestors = new ArrayList<>();
+                    AncestorBean ancestor = new AncestorBean();
+                    ancestor.setId(parent.getId());
+                    ancestors.add(ancestor);
+                    comment.setAncestors(ancestors);
+                    BodyBean body = new BodyBean();
+                    StorageBean storage = new StorageBean();
+                    storage.setRepresentation(Storage.Representation.STORAGE.toString());
+                    storage.setValue(evaluate);
+                    body.setStorage(storage);
+                    comment.setBody(body);
+                    return getClientFactory().getContentClient().createComment(comment).get();
+                });
             } catch (MojoFailureException e) {
                 throw fail("Unable to upload blog entry", e);
             }
@@ -16,18 +16,27 @@
  */
 package com.github.lucapino.confluence;
 
+import com.github.lucapino.confluence.client.ConfluenceClient;
+import com.github.lucapino.confluence.client.RestErrors;
+import com.github.lucapino.confluence.client.WikiConverter;
+import com.github.lucapino.confluence.helpers.ContentDigest;
+import com.github.lucapino.confluence.helpers.DigestStore;
 import com.github.lucapino.confluence.model.PageDescriptor;
+import com.github.lucapino.confluence.model.PageFields;
 import com.github.lucapino.confluence.model.Storage;
 import com.github.lucapino.confluence.rest.core.api.domain.content.AncestorBean;
 import com.github.lucapino.confluence.rest.core.api.domain.content.BodyBean;
 import com.github.lucapino.confluence.rest.core.api.domain.content.ContentBean;
-import com.github.lucapino.confluence.rest.core.api.domain.content.ContentResultsBean;
 import com.github.lucapino.confluence.rest.core.api.domain.content.StorageBean;
 import com.github.lucapino.confluence.rest.core.api.domain.space.SpaceBean;
 import com.github.lucapino.confluence.rest.core.api.misc.ContentType;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -72,54 +81,167 @@ public class AddPageConfluenceMojo extends AbstractConfluenceMojo {
 
     @Override
     public void doExecute() throws Exception {
-        String evaluate = processContent(inputFile);
-        createPageObject(parent, evaluate);
-    }
-
-    private void createPageObject(PageDescriptor parent, String content) throws Exception {
         Log log = getLog();
         // Run only at the execution root
         if (runOnlyAtExecutionRoot && !isThisTheExecutionRoot()) {
             log.info("Skipping the announcement mail in this project because it's not the Execution Root");
         } else {
-            try {
-                // configure page
-                ContentResultsBean contentResult = getClientFactory().getContentClient().getContent(ContentType.PAGE, parent.getSpace(), parent.getTitle(), null, null, null, 0, 0).get();
-                ContentBean parentContent = contentResult.getResults().get(0);
-
-                ContentBean newPage = new ContentBean();
-                newPage.setType(ContentType.PAGE.getName());
-                newPage.setSpace(new SpaceBean(parent.getSpace()));
-                newPage.setTitle(pageTitle);
-                List<AncestorBean> ancestors = new ArrayList<>();
-                AncestorBean ancestor = new AncestorBean();
-                ancestor.setId(parentContent.getId());
-                ancestors.add(ancestor);
-                newPage.setAncestors(ancestors);
-                BodyBean body = new BodyBean();
-                StorageBean storage;
-                if (wikiFormat) {
-                    StorageBean contentStorage = new StorageBean();
-                    contentStorage.setValue(content);
-                    contentStorage.setRepresentation(Storage.Representation.WIKI.toString());
-                    storage = getClientFactory().getContentClient().convertContent(contentStorage).get();
-                } else {
-                    storage = new StorageBean();
-                    storage.setRepresentation(Storage.Representation.STORAGE.toString());
-                    storage.setValue(content);
+            String key = "add-page|" + DigestStore.key(url, parent.getSpace(), pageTitle);
+            DigestStore digests = getIncrementalDigests();
+            String inputs = digests != null ? inputsOf() : null;
+            if (digests != null && digests.isUpToDate(key, inputs)) {
+                log.info("Page '" + pageTitle + "' is up to date, its inputs did not change since the last build");
+                if (dryRun) {
+                    plan("skip-page", planTarget(parent.getSpace(), pageTitle), 0, 0);
                 }
-                body.setStorage(storage);
-                newPage.setBody(body);
-                ContentBean newContent = getClientFactory().getContentClient().createContent(newPage).get();
-
+                // the attachments are tracked on their own
+                if (!ArrayUtils.isEmpty(attachments)) {
+                    new AddAttachmentConfluenceMojo(this, new PageDescriptor(digests.get(key).getId(), parent.getSpace(), pageTitle),
+                            attachments).execute();
+                }
+                return;
+            }
+            if (dryRun) {
+                try {
+                    planPage();
+                } catch (Exception e) {
+                    throw fail("Unable to plan page", e);
+                }
+                return;
+            }
+            try {
+                ContentBean newContent = createPage();
                 PageDescriptor newPageDescriptor = new PageDescriptor(newContent.getId(), newContent.getSpace().getKey(), newContent.getTitle());
+                if (inputs != null) {
+                    String output = newContent.getBody() != null && newContent.getBody().getStorage() != null
+                            ? ContentDigest.of(newContent.getBody().getStorage().getValue()) : null;
+                    digests.put(key, output, newContent.getVersion() != null ? newContent.getVersion().getNumber() : null,
+                            inputs, newContent.getId());
+                    digests.save();
+                }
 
                 if (!ArrayUtils.isEmpty(attachments)) {
                     new AddAttachmentConfluenceMojo(this, newPageDescriptor, attachments).execute();
                 }
+            } catch (ExecutionException e) {
+                throw fail("Unable to upload page", e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
             } catch (Exception e) {
                 throw fail("Unable to upload page", e);
             }
         }
     }
+
+    /**
+     * Creates the page. Rendering and conversion of the content, lookup of
+     * the parent and check of the attachments run concurrently; the page is
+     * created once all of them are done.
+     */
+    private ContentBean createPage() throws Exception {
+        ConfluenceClient client = getClient();
+        WikiConverter wikiConverter = wikiFormat ? getWikiConverter() : null;
+        CompletableFuture<BodyBean> body = client.async(() -> processContent(inputFile))
+                .thenCompose(content -> toBody(wikiConverter, content));
+        CompletableFuture<ContentBean> parentContent = client.async(() -> findPage(parent, PageFields.ID));
+        CompletableFuture<Void> attachmentsChecked = client.async(() -> {
+            checkAttachments();
+            return null;
+        });
+
+        CompletableFuture<ContentBean> created = body
+                .thenCombine(parentContent, this::newPage)
+                .thenCombine(attachmentsChecked, (newPage, checked) -> newPage)
+                .thenCompose(newPage -> client.async(() -> getClientFactory().getContentClient().createContent(newPage).get()));
+        try {
+            return created.get();
+        } catch (ExecutionException e) {
+            if (parent.isAbsolute() || !RestErrors.isNotFound(e)) {
+                throw e;
+            }
+            // the cached id of the parent is stale
+            invalidatePage(parent);
+            BodyBean pageBody = body.get();
+            return withPage(parent, PageFields.ID, page -> {
+                return getClientFactory().getContentClient().createContent(newPage(pageBody, page)).get();
+            });
+        }
+    }
+
+    /**
+     * @return the digest of what the page depends on, or {@code null} if the
+     * template cannot be tracked.
+     */
+    private String inputsOf() throws IOException {
+        DigestStore.Inputs inputs = templateInputs(inputFile);
+        if (inputs == null) {
+            return null;
+        }
+        return inputs.add("parent", parent.getId() + "|" + parent.getSpace() + "|" + parent.getTitle())
+                .add("wikiFormat", wikiFormat)
+                .digest();
+    }
+
+    /**
+     * Records the creation of the page and the upload of its attachments,
+     * after checking that the parent exists.
+     */
+    private void planPage() throws Exception {
+        String content = processContent(inputFile);
+        findPage(parent, PageFields.ID);
+        checkAttachments();
+        if (lookupPage(parent.getSpace(), pageTitle, PageFields.ID) != null) {
+            getLog().warn("Page '" + pageTitle + "' already exists in space " + parent.getSpace() + ", creating it would fail");
+        }
+        int conversions = wikiFormat && getWikiConverter().needsServer(content) ? 1 : 0;
+        plan("create-page", planTarget(parent.getSpace(), pageTitle), 1 + conversions, sizeOf(content) * (1 + conversions));
+        if (attachments != null) {
+            for (File attachment : attachments) {
+                // a new page has no attachments to compare with
+                plan("upload-attachment", planTarget(parent.getSpace(), pageTitle) + "/" + attachment.getName(), 1,
+                        attachment.length());
+            }
+        }
+    }
+
+    private CompletableFuture<BodyBean> toBody(WikiConverter wikiConverter, String content) {
+        if (wikiFormat) {
+            return wikiConverter.convert(content).thenApply(AddPageConfluenceMojo::toBody);
+        }
+        StorageBean storage = new StorageBean();
+        storage.setRepresentation(Storage.Representation.STORAGE.toString());
+        storage.setValue(content);
+        return CompletableFuture.completedFuture(toBody(storage));
+    }
+
+    private static BodyBean toBody(StorageBean storage) {
+        BodyBean body = new BodyBean();
+        body.setStorage(storage);
+        return body;
+    }
+
+    private ContentBean newPage(BodyBean body, ContentBean parentContent) {
+        ContentBean newPage = new ContentBean();
+        newPage.setType(ContentType.PAGE.getName());
+        newPage.setSpace(new SpaceBean(parent.getSpace()));
+        newPage.setTitle(pageTitle);
+        List<AncestorBean> ancestors = new ArrayList<>();
+        AncestorBean ancestor = new AncestorBean();
+        ancestor.setId(parentContent.getId());
+        ancestors.add(ancestor);
+        newPage.setAncestors(ancestors);
+        newPage.setBody(body);
+        return newPage;
+    }
+
+    /**
+     * Fails before the page is created if an attachment cannot be read.
+     */
+    private void checkAttachments() throws FileNotFoundException {
+        if (attachments != null) {
+            for (File attachment : attachments) {
+                if (!attachment.isFile() || !attachment.canRead()) {
+                    throw new FileNotFoundException("Attachment " + attachment + " not found or not readable");
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,482 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence;
+
+import com.github.lucapino.confluence.helpers.ContentDigest;
+import com.github.lucapino.confluence.helpers.DigestStore;
+import com.github.lucapino.confluence.model.PageDescriptor;
+import com.github.lucapino.confluence.model.PageFields;
+import com.github.lucapino.confluence.model.PageNode;
+import com.github.lucapino.confluence.model.Storage;
+import com.github.lucapino.confluence.rest.core.api.domain.content.AncestorBean;
+import com.github.lucapino.confluence.rest.core.api.domain.content.BodyBean;
+import com.github.lucapino.confluence.rest.core.api.domain.content.ContentBean;
+import com.github.lucapino.confluence.rest.core.api.domain.content.StorageBean;
+import com.github.lucapino.confluence.rest.core.api.domain.content.VersionBean;
+import com.github.lucapino.confluence.rest.core.api.domain.space.SpaceBean;
+import com.github.lucapino.confluence.rest.core.api.misc.ContentType;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Publishes a whole directory tree of templates as a page hierarchy.
+ * <p>
+ * Every file becomes a page titled after its name (without extension), every
+ * directory a page titled after the directory, whose content is taken from
+ * its index file if any. Titles are unique in a space, so two files or
+ * directories with the same base name fail the publication. The mojo first
+ * computes which pages have to be created, updated or can be skipped, then
+ * applies the plan level by level so that parents exist before their
+ * children. Existing pages of the tree found under another parent are moved;
+ * a page with the same title elsewhere in the space fails the publication,
+ * unless <code>movePagesIntoTree</code> is set.
+ */
+@Mojo(name = "publish-tree", requiresProject = false)
+public class PublishTreeConfluenceMojo extends AbstractConfluenceMojo {
+
+    /**
+     * Use wiki format in the templates
+     */
+    @Parameter(defaultValue = "false", required = true)
+    private Boolean wikiFormat;
+    /**
+     * Descriptor of the page under which the tree is published. The space of
+     * the descriptor is used for all the pages of the tree.
+     */
+    @Parameter(required = true)
+    private PageDescriptor parent;
+    /**
+     * Directory containing the templates
+     */
+    @Parameter(required = true)
+    private File sourceDirectory;
+    /**
+     * Patterns of the files to publish, relative to
+     * <code>sourceDirectory</code>
+     */
+    @Parameter
+    private String[] includes;
+    /**
+     * Patterns of the files to exclude, relative to
+     * <code>sourceDirectory</code>
+     */
+    @Parameter
+    private String[] excludes;
+    /**
+     * Base name of the file providing the content of a directory page
+     */
+    @Parameter(defaultValue = "index")
+    private String indexName = "index";
+    /**
+     * Move the existing pages with the title of a page of the tree that are
+     * not under <code>parent</code> into the tree, replacing their content.
+     * Without it, such a page fails the publication, as it is most likely an
+     * unrelated page of the space.
+     */
+    @Parameter(property = "confluence.movePagesIntoTree", defaultValue = "false")
+    private boolean movePagesIntoTree;
+    private DigestStore digests;
+    private ContentBean root;
+    private Map<String, StorageBean> converted;
+
+    @Override
+    public void doExecute() throws Exception {
+        Log log = getLog();
+        // Run only at the execution root
+        if (runOnlyAtExecutionRoot && !isThisTheExecutionRoot()) {
+            log.info("Skipping the announcement mail in this project because it's not the Execution Root");
+        } else {
+            if (!sourceDirectory.isDirectory()) {
+                log.warn("Source directory " + sourceDirectory + " not found. Mojo skipping.");
+                return;
+            }
+            long start = System.currentTimeMillis();
+            List<PageNode> nodes = scan();
+            digests = getDigestStore();
+            root = findPage(parent, PageFields.ID);
+            Map<File, String> rendered = render(nodes);
+
+            ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads));
+            try {
+                // plan: render and look every page up, independently of the hierarchy
+                List<Future<?>> planned = new ArrayList<>();
+                for (PageNode node : nodes) {
+                    planned.add(workers.submit(() -> {
+                        plan(node, rendered.get(node.getSource()));
+                        return null;
+                    }));
+                }
+                await(planned, "Unable to plan the publication");
+                for (List<PageNode> level : byDepth(nodes)) {
+                    moveMisplaced(level);
+                }
+                Map<PageNode.Action, Integer> counts = count(nodes);
+                log.info("Publication plan: " + counts.get(PageNode.Action.CREATE) + " page(s) to create, "
+                        + counts.get(PageNode.Action.UPDATE) + " to update, "
+                        + counts.get(PageNode.Action.SKIP) + " unchanged");
+                if (dryRun) {
+                    planTree(nodes);
+                    return;
+                }
+
+                if (wikiFormat) {
+                    convert(nodes);
+                }
+
+                // apply: level by level, so that parents exist before their children
+                for (List<PageNode> level : byDepth(nodes)) {
+                    List<Future<?>> applied = new ArrayList<>();
+                    for (PageNode node : level) {
+                        if (node.getAction() != PageNode.Action.SKIP) {
+                            applied.add(workers.submit(() -> {
+                                apply(node);
+                                return null;
+                            }));
+                        }
+                    }
+                    await(applied, "Unable to publish the page tree");
+                }
+                digests.save();
+            } finally {
+                workers.shutdownNow();
+            }
+            log.info("Published " + nodes.size() + " page(s) in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Builds the page tree from the content of {@code sourceDirectory}.
+     *
+     * @return the nodes of the tree, parents before children.
+     */
+    private List<PageNode> scan() throws MojoFailureException {
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(sourceDirectory);
+        scanner.setIncludes(includes);
+        scanner.setExcludes(excludes);
+        scanner.addDefaultExcludes();
+        scanner.scan();
+        String[] files = scanner.getIncludedFiles();
+        Arrays.sort(files);
+
+        Map<String, File> indexes = new HashMap<>();
+        for (String path : files) {
+            File file = new File(sourceDirectory, path);
+            String directory = parentPath(path);
+            if (!directory.isEmpty() && isIndex(file)) {
+                indexes.put(directory, file);
+            }
+        }
+        List<PageNode> nodes = new ArrayList<>();
+        Map<String, PageNode> directories = new HashMap<>();
+        for (String path : files) {
+            File file = new File(sourceDirectory, path);
+            String directory = parentPath(path);
+            if (!directory.isEmpty() && isIndex(file)) {
+                // published as the content of the directory page
+                directoryNode(directory, directories, indexes, nodes);
+                continue;
+            }
+            PageNode parentNode = directoryNode(directory, directories, indexes, nodes);
+            nodes.add(new PageNode(parentNode, FileUtils.removeExtension(file.getName()), file));
+        }
+
+        // Confluence compares titles regardless of case
+        Map<String, PageNode> titles = new HashMap<>();
+        Map<PageNode, String> paths = new HashMap<>();
+        for (Map.Entry<String, PageNode> directory : directories.entrySet()) {
+            paths.put(directory.getValue(), directory.getKey() + File.separator);
+        }
+        for (PageNode node : nodes) {
+            PageNode other = titles.putIfAbsent(node.getTitle().toLowerCase(Locale.ROOT), node);
+            if (other != null) {
+                throw new MojoFailureException("Both " + pathOf(other, paths) + " and " + pathOf(node, paths)
+                        + " would be published as page '" + node.getTitle() + "' in space " + parent.getSpace());
+            }
+        }
+        return nodes;
+    }
+
+    private String pathOf(PageNode node, Map<PageNode, String> paths) {
+        String path = paths.get(node);
+        if (path == null) {
+            path = sourceDirectory.toPath().relativize(node.getSource().toPath()).toString();
+        }
+        return path;
+    }
+
+    private PageNode directoryNode(String directory, Map<String, PageNode> directories, Map<String, File> indexes, List<PageNode> nodes) {
+        if (directory.isEmpty()) {
+            return null;
+        }
+        PageNode node = directories.get(directory);
+        if (node == null) {
+            PageNode parentNode = directoryNode(parentPath(directory), directories, indexes, nodes);
+            node = new PageNode(parentNode, new File(directory).getName(), indexes.get(directory));
+            directories.put(directory, node);
+            nodes.add(node);
+        }
+        return node;
+    }
+
+    private boolean isIndex(File file) {
+        return FileUtils.removeExtension(file.getName()).equals(indexName);
+    }
+
+    private static String parentPath(String path) {
+        String parentPath = new File(path).getParent();
+        return parentPath == null ? "" : parentPath;
+    }
+
+    /**
+     * Decides whether the page of a node has to be created, updated or can be
+     * skipped.
+     */
+    private void plan(PageNode node, String content) throws Exception {
+        String space = parent.getSpace();
+        if (content != null) {
+            node.setContent(content);
+            node.setDigest(ContentDigest.of(content));
+        }
+        ContentBean existing = lookupPage(space, node.getTitle(), PageFields.TREE);
+        if (existing == null) {
+            node.setAction(PageNode.Action.CREATE);
+            return;
+        }
+        node.setPage(new PageDescriptor(existing.getId(), space, node.getTitle()));
+        node.setVersion(existing.getVersion() != null ? existing.getVersion().getNumber() : null);
+        List<AncestorBean> ancestors = existing.getAncestors();
+        if (ancestors != null) {
+            if (!movePagesIntoTree && !isUnderRoot(ancestors)) {
+                throw new MojoFailureException("Page '" + node.getTitle() + "' already exists in space " + space
+                        + " outside of '" + parent.getTitle() + "', set movePagesIntoTree to move it into the tree");
+            }
+            // from the top of the space to the parent
+            node.setParentId(ancestors.isEmpty() ? "" : ancestors.get(ancestors.size() - 1).getId());
+        }
+        String storage = existing.getBody() != null && existing.getBody().getStorage() != null
+                ? existing.getBody().getStorage().getValue() : null;
+        String key = DigestStore.key(url, space, node.getTitle());
+        if (node.getSource() == null) {
+            // a directory without index keeps its content, needed to move it
+            node.setContent(storage);
+            node.setAction(PageNode.Action.SKIP);
+        } else if (digests.matches(key, node.getDigest(), node.getVersion())) {
+            node.setAction(PageNode.Action.SKIP);
+        } else if (!wikiFormat && node.getDigest().equals(ContentDigest.of(storage))) {
+            digests.put(key, node.getDigest(), node.getVersion());
+            node.setAction(PageNode.Action.SKIP);
+        } else {
+            node.setAction(PageNode.Action.UPDATE);
+        }
+    }
+
+    private boolean isUnderRoot(List<AncestorBean> ancestors) {
+        for (AncestorBean ancestor : ancestors) {
+            if (root.getId().equals(ancestor.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Turns the unchanged pages of a level that are not under the page of
+     * their parent node into updates, which move them.
+     */
+    private void moveMisplaced(List<PageNode> level) {
+        for (PageNode node : level) {
+            if (node.getAction() != PageNode.Action.SKIP || node.getParentId() == null) {
+                continue;
+            }
+            String expected;
+            if (node.getParent() == null) {
+                expected = root.getId();
+            } else {
+                // a parent still to be created cannot hold the page yet
+                expected = node.getParent().getPage() != null ? node.getParent().getPage().getId() : null;
+            }
+            if (expected == null || !expected.equals(node.getParentId())) {
+                getLog().info("Page '" + node.getTitle() + "' is not under '"
+                        + (node.getParent() == null ? parent.getTitle() : node.getParent().getTitle()) + "', moving it");
+                node.setAction(PageNode.Action.UPDATE);
+            }
+        }
+    }
+
+    /**
+     * Records the pages a real run would create or update, with the
+     * conversions their wiki content needs.
+     */
+    private void planTree(List<PageNode> nodes) throws Exception {
+        for (PageNode node : nodes) {
+            String target = planTarget(parent.getSpace(), node.getTitle());
+            if (node.getAction() == PageNode.Action.SKIP) {
+                plan("skip-page", target, 0, 0);
+                continue;
+            }
+            String content = node.getContent() != null ? node.getContent() : "";
+            int conversions = wikiFormat && getWikiConverter().needsServer(content) ? 1 : 0;
+            plan(node.getAction() == PageNode.Action.CREATE ? "create-page" : "update-page", target, 1 + conversions,
+                    sizeOf(content) * (1 + conversions));
+        }
+    }
+
+    /**
+     * Renders the templates of the tree concurrently.
+     */
+    private Map<File, String> render(List<PageNode> nodes) throws Exception {
+        List<File> sources = new ArrayList<>();
+        for (PageNode node : nodes) {
+            if (node.getSource() != null) {
+                sources.add(node.getSource());
+            }
+        }
+        return processContents(sources);
+    }
+
+    /**
+     * Creates or updates the page of a node. Both place it under the page of
+     * its parent node.
+     */
+    private void apply(PageNode node) throws Exception {
+        String space = parent.getSpace();
+        ContentBean page = new ContentBean();
+        page.setType(ContentType.PAGE.getName());
+        page.setSpace(new SpaceBean(space));
+        page.setTitle(node.getTitle());
+        BodyBean body = new BodyBean();
+        body.setStorage(toStorage(node));
+        page.setBody(body);
+        String parentId = node.getParent() == null ? root.getId() : node.getParent().getPage().getId();
+        List<AncestorBean> ancestors = new ArrayList<>();
+        AncestorBean ancestor = new AncestorBean();
+        ancestor.setId(parentId);
+        ancestors.add(ancestor);
+        page.setAncestors(ancestors);
+
+        ContentBean result;
+        if (node.getAction() == PageNode.Action.CREATE) {
+            result = getClientFactory().getContentClient().createContent(page).get();
+            getLog().info("Created page '" + node.getTitle() + "'");
+        } else {
+            page.setId(node.getPage().getId());
+            for (int attempt = 0;; attempt++) {
+                VersionBean version = new VersionBean();
+                version.setNumber(node.getVersion() != null ? node.getVersion() + 1 : 1);
+                page.setVersion(version);
+                try {
+                    result = getClientFactory().getContentClient().updateContent(page).get();
+                    break;
+                } catch (ExecutionException e) {
+                    awaitConflictRetry(e, node.getTitle(), version.getNumber(), attempt);
+                    // edited since the plan: the tree replaces the content of the latest version
+                    ContentBean latest = findPage(node.getPage(), PageFields.VERSION);
+                    node.setVersion(latest.getVersion() != null ? latest.getVersion().getNumber() : null);
+                }
+            }
+            getLog().info("Updated page '" + node.getTitle() + "'");
+        }
+        node.setPage(new PageDescriptor(result.getId(), space, node.getTitle()));
+        if (node.getDigest() != null && result.getVersion() != null) {
+            digests.put(DigestStore.key(url, space, node.getTitle()), node.getDigest(), result.getVersion().getNumber());
+        }
+    }
+
+    /**
+     * Converts the wiki content of all the pages to publish in one batch.
+     */
+    private void convert(List<PageNode> nodes) throws Exception {
+        List<String> sources = new ArrayList<>();
+        for (PageNode node : nodes) {
+            if (node.getAction() != PageNode.Action.SKIP && node.getSource() != null) {
+                sources.add(node.getContent() != null ? node.getContent() : "");
+            }
+        }
+        try {
+            converted = getWikiConverter().convertAll(sources);
+        } catch (ExecutionException e) {
+            throw fail("Unable to convert the wiki content", e);
+        }
+        getLog().info(getWikiConverter().getSummary());
+    }
+
+    private StorageBean toStorage(PageNode node) {
+        String content = node.getContent() != null ? node.getContent() : "";
+        // the content of a directory without index is the one on the server
+        if (wikiFormat && node.getSource() != null) {
+            return converted.get(content);
+        }
+        StorageBean storage = new StorageBean();
+        storage.setRepresentation(Storage.Representation.STORAGE.toString());
+        storage.setValue(content);
+        return storage;
+    }
+
+    private void await(List<Future<?>> futures, String message) throws MojoFailureException, InterruptedException {
+        Exception failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null && failure.getCause() instanceof MojoFailureException) {
+            // already explained
+            throw (MojoFailureException) failure.getCause();
+        } else if (failure != null) {
+            throw fail(message, failure);
+        }
+    }
+
+    private static Map<PageNode.Action, Integer> count(List<PageNode> nodes) {
+        Map<PageNode.Action, Integer> counts = new HashMap<>();
+        for (PageNode.Action action : PageNode.Action.values()) {
+            counts.put(action, 0);
+        }
+        for (PageNode node : nodes) {
+            counts.put(node.getAction(), counts.get(node.getAction()) + 1);
+        }
+        return counts;
+    }
+
+    private static Iterable<List<PageNode>> byDepth(List<PageNode> nodes) {
+        Map<Integer, List<PageNode>> levels = new TreeMap<>();
+        for (PageNode node : nodes) {
+            levels.computeIfAbsent(node.getDepth(), depth -> new ArrayList<>()).add(node);
+        }
+        return levels.values();
+    }
+}
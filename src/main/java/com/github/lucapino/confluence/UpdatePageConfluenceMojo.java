@@ -16,28 +16,51 @@
  */
 package com.github.lucapino.confluence;
 
+import com.github.lucapino.confluence.client.ClientRegistry;
+import com.github.lucapino.confluence.helpers.ContentDigest;
+import com.github.lucapino.confluence.helpers.DigestStore;
+import com.github.lucapino.confluence.helpers.PageIdCache;
+import com.github.lucapino.confluence.helpers.StorageSection;
 import com.github.lucapino.confluence.model.PageDescriptor;
+import com.github.lucapino.confluence.model.PageFields;
 import com.github.lucapino.confluence.model.Storage;
 import com.github.lucapino.confluence.rest.core.api.domain.content.BodyBean;
 import com.github.lucapino.confluence.rest.core.api.domain.content.ContentBean;
-import com.github.lucapino.confluence.rest.core.api.domain.content.ContentResultsBean;
 import com.github.lucapino.confluence.rest.core.api.domain.content.StorageBean;
-import com.github.lucapino.confluence.rest.core.api.misc.ContentType;
+import com.github.lucapino.confluence.rest.core.api.domain.content.VersionBean;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
 
 /**
  * Updates the content of an existing page.
  * If the user don't specify append or prepend, the new content will substitute
- * the whole page.
+ * the whole page, or the whole section when a section is given.
  */
 @Mojo(name = "update-page", requiresProject = false)
 public class UpdatePageConfluenceMojo extends AbstractConfluenceMojo {
 
     /**
-     * Use wiki format in the template
+     * Use wiki format in the template. The rendered content is converted to
+     * storage format before being joined with the current content of the
+     * page by <code>append</code>, <code>prepend</code> or
+     * <code>section</code>; only a full replacement is sent as wiki markup.
      */
     @Parameter(defaultValue = "false", required = true)
     private Boolean wikiFormat;
@@ -68,6 +91,62 @@ public class UpdatePageConfluenceMojo extends AbstractConfluenceMojo {
     @Parameter(defaultValue = "false", required = true)
     private boolean append;
 
+    /**
+     * Name of an anchor macro delimiting the section of the page to update,
+     * from the block holding the anchor to the next block holding an anchor.
+     * <code>append</code>, <code>prepend</code> or the replacement apply to
+     * the section only, the rest of the page is written back as it is,
+     * streamed into the request unless <code>skipUnchanged</code> is set. A
+     * missing section is added, with its anchor, at the end of the page.
+     */
+    @Parameter(property = "confluence.section")
+    private String section;
+
+    /**
+     * Skip the update when the rendered content is the same as the current
+     * one, so no new page version (and no notification) is created.
+     */
+    @Parameter(property = "confluence.skipUnchanged", defaultValue = "false")
+    private boolean skipUnchanged;
+
+    /**
+     * Render the template straight into the HTTP request instead of building
+     * the page content in memory. Ignored when <code>skipUnchanged</code> is
+     * set, as the rendered content has to be compared before sending it.
+     */
+    @Parameter(property = "confluence.streamContent", defaultValue = "false")
+    private boolean streamContent;
+
+    /**
+     * Collect the rendered content of this page from every module of the
+     * reactor and update the page once, from the last module running the
+     * goal, instead of once per module. The fragments are joined in reactor
+     * order and <code>append</code> or <code>prepend</code> applies to all
+     * of them, with the settings of the last module in that order. The pages
+     * no execution updated, e.g. in a parallel build, are updated when the
+     * build ends, and a failure then fails the build too. Ignored when the
+     * plugin does not run in a Maven build session.
+     */
+    @Parameter(property = "confluence.aggregate", defaultValue = "false")
+    private boolean aggregate;
+
+    /**
+     * The execution of the goal, to find the modules running it.
+     */
+    @Parameter(defaultValue = "${mojoExecution}", readonly = true)
+    private MojoExecution mojoExecution;
+
+    /**
+     * Fragments queued by the aggregated executions, per build session and
+     * page, in reactor order.
+     */
+    private static final Map<MavenSession, Map<String, Aggregate>> AGGREGATES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Number of updates skipped in this build because nothing changed.
+     */
+    private static final AtomicInteger SKIPPED_UPDATES = new AtomicInteger();
+
     @Override
     public void doExecute() throws Exception {
         Log log = getLog();
@@ -75,36 +154,347 @@ public class UpdatePageConfluenceMojo extends AbstractConfluenceMojo {
         if (runOnlyAtExecutionRoot && !isThisTheExecutionRoot()) {
             log.info("Skipping the announcement mail in this project because it's not the Execution Root");
         } else {
+            boolean aggregated = aggregate && mavenSession != null;
+            if (aggregate && !aggregated) {
+                log.warn("Updates cannot be aggregated without a build session, updating page '" + pageTitle + "' now");
+            }
             if (!inputFile.exists()) {
                 log.warn("No template file found. Mojo skipping.");
+            } else if (aggregated) {
+                enqueue(processContent(inputFile));
+            }
+            if (aggregated && isLastAggregatingProject()) {
+                flushAggregated(mavenSession);
+            }
+            if (aggregated || !inputFile.exists()) {
                 return;
             }
 
-            // configure page
-            ContentResultsBean contentResult = getClientFactory().getContentClient().getContent(ContentType.PAGE, parent.getSpace(), pageTitle, null, null, null, 0, 0).get();
-            // getContentBySpaceKeyAndTitle(page.getSpace(), page.getTitle());
-            ContentBean updatedPage = contentResult.getResults().get(0);
+            String key = DigestStore.key(url, parent.getSpace(), pageTitle);
+            String inputs = getIncrementalDigests() != null ? inputsOf(key) : null;
+            if (inputs != null && getDigestStore().isUpToDate(key, inputs)) {
+                log.info("Page '" + pageTitle + "' is up to date, its inputs did not change since the last build");
+                if (dryRun) {
+                    plan("skip-page", planTarget(parent.getSpace(), pageTitle), 0, 0);
+                }
+                return;
+            }
+
+            // a dry run needs the rendered content to measure it
+            boolean streaming = streamContent && !skipUnchanged && !dryRun;
+            update(streaming ? null : processContent(inputFile), streaming, inputs);
+        }
+    }
+
+    /**
+     * Queues the content rendered by this module until the last module
+     * running the goal, or the end of the build.
+     */
+    private void enqueue(String fragment) {
+        MavenSession session = mavenSession;
+        String key = DigestStore.key(url, parent.getSpace(), pageTitle);
+        String module = project != null ? project.getArtifactId() : basedir;
+        // the modules of a parallel build do not end in reactor order
+        int index = project != null && session.getProjects() != null ? session.getProjects().indexOf(project) : -1;
+        synchronized (AGGREGATES) {
+            AGGREGATES.computeIfAbsent(session, s -> new LinkedHashMap<>())
+                    .computeIfAbsent(key, page -> new Aggregate())
+                    .add(index, this, module, fragment);
+        }
+        // the pages left over by the executions, i.e. in a parallel build
+        ClientRegistry.atSessionEnd(session, "aggregated-updates", () -> flushAtSessionEnd(session));
+        getLog().info("Content of " + module + " queued for page '" + pageTitle + "', updated by the last module of the build");
+    }
+
+    /**
+     * @return <code>true</code> if no later module of a sequential reactor
+     * build runs the goal, so that this execution updates the queued pages.
+     */
+    private boolean isLastAggregatingProject() {
+        List<MavenProject> projects = mavenSession.getProjects();
+        int index = projects != null && project != null ? projects.indexOf(project) : -1;
+        if (mavenSession.isParallel() || index < 0) {
+            return false;
+        }
+        for (MavenProject later : projects.subList(index + 1, projects.size())) {
+            if (runsThisGoal(later)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean runsThisGoal(MavenProject other) {
+        if (mojoExecution == null || mojoExecution.getSource() == MojoExecution.Source.CLI) {
+            // invoked from the command line, the goal runs in every module
+            return true;
+        }
+        Plugin plugin = other.getPlugin(mojoExecution.getGroupId() + ":" + mojoExecution.getArtifactId());
+        if (plugin != null) {
+            for (PluginExecution execution : plugin.getExecutions()) {
+                if (execution.getGoals().contains(mojoExecution.getGoal())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Updates the pages no execution updated. The build is marked as failed
+     * if one of them cannot be updated.
+     */
+    private static void flushAtSessionEnd(MavenSession session) {
+        try {
+            flushAggregated(session);
+        } catch (MojoExecutionException e) {
+            if (session.getResult() != null) {
+                session.getResult().addException(e);
+            }
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Updates every page queued in the session once, with the settings of the
+     * last module that queued it. A failure does not stop the update of the
+     * other pages.
+     *
+     * @throws MojoExecutionException with the first failure, once all the
+     * pages are processed.
+     */
+    private static void flushAggregated(MavenSession session) throws MojoExecutionException {
+        Map<String, Aggregate> pages = AGGREGATES.remove(session);
+        if (pages == null) {
+            return;
+        }
+        Log log = null;
+        MojoExecutionException failure = null;
+        for (Aggregate aggregate : pages.values()) {
+            UpdatePageConfluenceMojo owner = aggregate.owner();
+            log = owner.getLog();
+            log.info("Updating page '" + owner.pageTitle + "' with the content of " + aggregate.fragments.size()
+                    + " module(s): " + String.join(", ", aggregate.modules()));
+            try {
+                owner.update(aggregate.content(), false, null);
+            } catch (Exception e) {
+                log.error("Unable to update page '" + owner.pageTitle + "'", e);
+                if (failure == null) {
+                    failure = new MojoExecutionException("Unable to update the aggregated page '" + owner.pageTitle + "'", e);
+                }
+            }
+        }
+        try {
+            PageIdCache.saveAll();
+        } catch (IOException e) {
+            log.warn("Unable to save the page id cache: " + e.getMessage());
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Reads the page, applies <code>append</code> or <code>prepend</code>
+     * to the page or to its section and writes it back, retrying on version
+     * conflicts.
+     *
+     * @param rendered the rendered content, {@code null} when streaming. Wiki
+     * markup is converted first unless it replaces the whole page.
+     * @param streaming whether the template is rendered into the request.
+     * @param inputs the digest of the inputs to record, {@code null} if the
+     * build is not incremental.
+     */
+    private void update(String rendered, boolean streaming, String inputs) throws Exception {
+        Log log = getLog();
+        String key = DigestStore.key(url, parent.getSpace(), pageTitle);
+        PageDescriptor page = new PageDescriptor(null, parent.getSpace(), pageTitle);
+        DigestStore digests = skipUnchanged || inputs != null ? getDigestStore() : null;
+        // the content kept from the page is in storage format, only a full replacement can be sent as wiki
+        boolean wiki = wikiFormat && !append && !prepend && section == null;
+        String fragment = wiki || !wikiFormat ? rendered
+                : getWikiConverter().convert(rendered != null ? rendered : processContent(inputFile)).get().getValue();
+        // only the section is copied, the rest of the page is streamed as is
+        boolean streamed = streaming || section != null && !skipUnchanged && !dryRun;
+        // a full replacement does not need the current content, unless compared
+        PageFields fields = append || prepend || section != null || skipUnchanged ? PageFields.BODY : PageFields.VERSION;
+
+        for (int attempt = 0;; attempt++) {
+            // (re)load the latest version of the page
+            ContentBean updatedPage = findPage(page, fields);
 
             // always in storage format
-            String oldContent = updatedPage.getBody().getStorage().getValue();
-            String content = processContent(inputFile);
+            String value = updatedPage.getBody() != null && updatedPage.getBody().getStorage() != null
+                    ? updatedPage.getBody().getStorage().getValue() : null;
+            String oldContent = value != null ? value : "";
+            Integer version = updatedPage.getVersion() != null ? updatedPage.getVersion().getNumber() : null;
             StorageBean storage = new StorageBean();
-            if (wikiFormat) {
+            if (wiki) {
                 storage.setRepresentation(Storage.Representation.WIKI.toString());
             } else {
                 storage.setRepresentation(Storage.Representation.STORAGE.toString());
             }
-            // now append or prepend
-            if (prepend) {
-                content = storage.getValue() + oldContent;
-            } else if (append) {
-                content = oldContent + storage.getValue();
-            }
-            storage.setValue(content);
             BodyBean body = new BodyBean();
             body.setStorage(storage);
             updatedPage.setBody(body);
-            getClientFactory().getContentClient().updateContent(updatedPage);
+            VersionBean nextVersion = new VersionBean();
+            nextVersion.setNumber(version != null ? version + 1 : 1);
+            updatedPage.setVersion(nextVersion);
+
+            // the new content replaces oldContent[insertAt, resumeAt)
+            int start = 0;
+            int end = oldContent.length();
+            String heading = "";
+            if (section != null) {
+                StorageSection found = StorageSection.find(oldContent, section);
+                if (found != null) {
+                    start = found.getStart();
+                    end = found.getEnd();
+                } else {
+                    log.info("Section '" + section + "' not found in page '" + pageTitle + "', adding it at the end");
+                    start = end;
+                    heading = StorageSection.anchor(section);
+                }
+            }
+            int insertAt = prepend || !append ? start : end;
+            int resumeAt = prepend || append ? insertAt : end;
+            String prefix = heading;
+
+            String digest = null;
+            if (!streamed) {
+                // now append or prepend
+                String content = new StringBuilder(oldContent.length() + prefix.length() + fragment.length())
+                        .append(oldContent, 0, insertAt)
+                        .append(prefix)
+                        .append(fragment)
+                        .append(oldContent, resumeAt, oldContent.length())
+                        .toString();
+                if (digests != null) {
+                    digest = ContentDigest.of(content);
+                }
+                if (skipUnchanged) {
+                    boolean sameAsServer = !wiki && digest.equals(ContentDigest.of(oldContent));
+                    if (sameAsServer || digests.matches(key, digest, version)) {
+                        log.info("Page '" + pageTitle + "' is unchanged, skipping update ("
+                                + SKIPPED_UPDATES.incrementAndGet() + " write(s) avoided in this build)");
+                        if (dryRun) {
+                            plan("skip-page", planTarget(parent.getSpace(), pageTitle), 0, 0);
+                        } else if (inputs != null) {
+                            digests.put(key, digest, version, inputs, updatedPage.getId());
+                            digests.save();
+                        }
+                        return;
+                    }
+                }
+                if (dryRun) {
+                    // wiki markup is converted by the update itself
+                    plan("update-page", planTarget(parent.getSpace(), pageTitle), 1, sizeOf(content));
+                    return;
+                }
+                storage.setValue(content);
+            }
+
+            ContentBean result;
+            try {
+                if (streamed) {
+                    result = getClient().updateContent(updatedPage, out -> {
+                        out.write(oldContent, 0, insertAt);
+                        out.write(prefix);
+                        if (fragment != null) {
+                            out.write(fragment);
+                        } else {
+                            processContent(inputFile, out);
+                        }
+                        out.write(oldContent, resumeAt, oldContent.length() - resumeAt);
+                    }).get();
+                } else {
+                    result = getClientFactory().getContentClient().updateContent(updatedPage).get();
+                }
+            } catch (ExecutionException e) {
+                awaitConflictRetry(e, pageTitle, nextVersion.getNumber(), attempt);
+                continue;
+            }
+
+            log.info("Updated page '" + pageTitle + "' to version " + nextVersion.getNumber()
+                    + (attempt > 0 ? " after " + attempt + " conflict(s)" : "") + " (" + conflictSummary() + ")");
+            if (digests != null && result != null) {
+                digests.put(key, digest, result.getVersion() != null ? result.getVersion().getNumber() : null, inputs, result.getId());
+                digests.save();
+            }
+            return;
+        }
+    }
+
+    /**
+     * @return the digest of what the update depends on, or {@code null} if
+     * the template cannot be tracked.
+     */
+    private String inputsOf(String key) throws IOException {
+        DigestStore.Inputs inputs = templateInputs(inputFile);
+        if (inputs == null) {
+            return null;
+        }
+        return inputs.add("page", key)
+                .add("wikiFormat", wikiFormat)
+                .add("append", append)
+                .add("prepend", prepend)
+                .add("section", section)
+                .digest();
+    }
+
+    /**
+     * The fragments queued for one page.
+     */
+    private static final class Aggregate {
+
+        /**
+         * Fragments by reactor index; the modules outside the reactor follow
+         * in the order they were queued.
+         */
+        private final List<Fragment> fragments = new ArrayList<>();
+
+        void add(int index, UpdatePageConfluenceMojo execution, String module, String fragment) {
+            int position = fragments.size();
+            while (index >= 0 && position > 0
+                    && (fragments.get(position - 1).index < 0 || fragments.get(position - 1).index > index)) {
+                position--;
+            }
+            fragments.add(position, new Fragment(index, execution, module, fragment));
+        }
+
+        UpdatePageConfluenceMojo owner() {
+            return fragments.get(fragments.size() - 1).execution;
+        }
+
+        String content() {
+            StringBuilder content = new StringBuilder();
+            for (Fragment fragment : fragments) {
+                content.append(fragment.content);
+            }
+            return content.toString();
+        }
+
+        List<String> modules() {
+            List<String> modules = new ArrayList<>();
+            for (Fragment fragment : fragments) {
+                modules.add(fragment.module);
+            }
+            return modules;
+        }
+    }
+
+    private static final class Fragment {
+
+        private final int index;
+        private final UpdatePageConfluenceMojo execution;
+        private final String module;
+        private final String content;
+
+        Fragment(int index, UpdatePageConfluenceMojo execution, String module, String content) {
+            this.index = index;
+            this.execution = execution;
+            this.module = module;
+            this.content = content;
         }
     }
 }
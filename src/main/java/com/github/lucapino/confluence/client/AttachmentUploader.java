@@ -0,0 +1,544 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import com.github.lucapino.confluence.helpers.ContentDigest;
+import com.github.lucapino.confluence.helpers.UploadState;
+import com.github.lucapino.confluence.model.RemoteAttachment;
+import com.github.lucapino.confluence.rest.core.api.domain.content.ContentBean;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Uploads a set of files as attachments of a single page, using up to a
+ * given number of concurrent streams and retrying each failed file on its own.
+ * <p>
+ * Files are streamed from disk, so their size is not bound by the heap. When
+ * an {@link UploadState} is given, the files uploaded by a failed run are not
+ * sent again by the next one.
+ * <p>
+ * When skipping unchanged files, the attachments of the page are listed once
+ * and a file is only sent if no attachment with its name, size and SHA-256
+ * exists. The digest is kept in the attachment comment, so it is shared by
+ * every machine publishing to the page.
+ * A file is only hashed when an attachment with its name and size exists;
+ * the digest of a file being sent is computed while it is read for the
+ * request.
+ * <p>
+ * Text files above a size threshold can be compressed with gzip while they
+ * are sent, as a <code>Content-Encoding</code> of the request: they are
+ * attached with their own name and type.
+ */
+public class AttachmentUploader {
+
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    /**
+     * Files at least this large report their progress.
+     */
+    private static final long PROGRESS_THRESHOLD = 10 * 1024 * 1024;
+    private static final Pattern DIGEST = Pattern.compile("sha256:([0-9a-f]{64})");
+    private static final Set<String> TEXT_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "txt", "log", "csv", "tsv", "htm", "html", "xml", "json", "js", "css", "svg", "md", "properties", "yaml", "yml"));
+
+    private final ConfluenceClient client;
+    private final int concurrency;
+    private final int retries;
+    private final Log log;
+    private UploadState state;
+    private boolean skipUnchanged;
+    private long compressionThreshold = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param client the client used for the uploads.
+     * @param concurrency the maximum number of concurrent uploads.
+     * @param retries how many times a failed upload is retried.
+     * @param log the log to report progress to.
+     */
+    public AttachmentUploader(ConfluenceClient client, int concurrency, int retries, Log log) {
+        this.client = client;
+        this.concurrency = Math.max(1, concurrency);
+        this.retries = Math.max(0, retries);
+        this.log = log;
+    }
+
+    /**
+     * Sets the state used to resume an interrupted upload.
+     *
+     * @param state the state, {@code null} to always upload every file.
+     *
+     * @return {@code this}.
+     */
+    public AttachmentUploader resumeFrom(UploadState state) {
+        this.state = state;
+        return this;
+    }
+
+    /**
+     * Sets whether the files already attached to the page with the same
+     * content are skipped.
+     *
+     * @param skipUnchanged <code>true</code> to only upload new or changed
+     * files.
+     *
+     * @return {@code this}.
+     */
+    public AttachmentUploader skipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+        return this;
+    }
+
+    /**
+     * Sets the size above which text files are compressed.
+     *
+     * @param threshold the size in bytes, negative to never compress.
+     *
+     * @return {@code this}.
+     */
+    public AttachmentUploader compressAbove(long threshold) {
+        this.compressionThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Uploads {@code files} to {@code parent}.
+     *
+     * @param parent the page the files are attached to; only its id is used.
+     * @param files the files to upload.
+     * @param comment the attachment comment, may be {@code null}.
+     *
+     * @return the outcome of the uploads.
+     *
+     * @throws InterruptedException if interrupted while waiting for the
+     * uploads.
+     */
+    public Result upload(ContentBean parent, File[] files, String comment) throws InterruptedException {
+        Result result = new Result();
+        long start = System.nanoTime();
+        if (state != null) {
+            List<File> pending = new ArrayList<>();
+            for (File file : files) {
+                if (state.isUploaded(parent.getId(), file)) {
+                    log.debug("Skipping " + file.getName() + ", uploaded by a previous run");
+                    result.resumed.incrementAndGet();
+                } else {
+                    pending.add(file);
+                }
+            }
+            files = pending.toArray(new File[0]);
+        }
+        Map<String, RemoteAttachment> attached = listAttachments(parent, files);
+        if (concurrency == 1 || files.length < 2) {
+            for (File file : files) {
+                send(parent, file, comment, attached, result);
+            }
+        } else {
+            ExecutorService workers = Executors.newFixedThreadPool(Math.min(concurrency, files.length));
+            try {
+                List<Future<?>> pending = new ArrayList<>();
+                for (File file : files) {
+                    pending.add(workers.submit(() -> send(parent, file, comment, attached, result)));
+                }
+                for (Future<?> future : pending) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        // failures are collected by uploadWithRetry
+                    }
+                }
+            } finally {
+                workers.shutdownNow();
+            }
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        if (state != null && result.failures.isEmpty()) {
+            try {
+                state.completed(parent.getId());
+            } catch (IOException e) {
+                log.warn("Unable to update the upload state: " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private void send(ContentBean parent, File file, String comment, Map<String, RemoteAttachment> attached, Result result) {
+        boolean compress = isCompressible(file);
+        if (!skipUnchanged) {
+            uploadWithRetry(parent, null, file, compress, comment, false, result);
+            return;
+        }
+        RemoteAttachment current = attached.get(file.getName());
+        try {
+            if (isUnchanged(current, file)) {
+                log.debug("Skipping " + file.getName() + ", unchanged");
+                result.unchanged(file);
+                return;
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read " + file.getName() + ": " + e.getMessage());
+            result.failed(file, e);
+            return;
+        }
+        // the digest for the next comparison is computed while the file is sent
+        uploadWithRetry(parent, current == null ? null : current.getId(), file, compress, comment, true, result);
+    }
+
+    /**
+     * Tells what uploading {@code files} to {@code parent} would do, without
+     * sending any of them. Only the attachments of the page are listed, when
+     * unchanged files are skipped.
+     *
+     * @param parent the page the files would be attached to.
+     * @param files the files to upload.
+     *
+     * @return the planned upload of each file.
+     *
+     * @throws IOException if a file cannot be read.
+     * @throws InterruptedException if interrupted while listing the
+     * attachments.
+     */
+    public List<Planned> plan(ContentBean parent, File[] files) throws IOException, InterruptedException {
+        Map<String, RemoteAttachment> attached = listAttachments(parent, files);
+        List<Planned> planned = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            RemoteAttachment current = attached.get(name);
+            if (state != null && state.isUploaded(parent.getId(), file)) {
+                planned.add(new Planned(file, name, Planned.Action.RESUMED));
+            } else if (!skipUnchanged) {
+                planned.add(new Planned(file, name, Planned.Action.UPLOAD));
+            } else if (isUnchanged(current, file)) {
+                planned.add(new Planned(file, name, Planned.Action.UNCHANGED));
+            } else {
+                planned.add(new Planned(file, name, current == null ? Planned.Action.UPLOAD : Planned.Action.UPDATE));
+            }
+        }
+        return planned;
+    }
+
+    private Map<String, RemoteAttachment> listAttachments(ContentBean parent, File[] files) throws InterruptedException {
+        if (!skipUnchanged || files.length == 0) {
+            return Collections.emptyMap();
+        }
+        try {
+            return client.getAttachments(parent.getId()).get();
+        } catch (ExecutionException e) {
+            log.warn("Unable to list the attachments of the page, uploading all of them: " + e.getCause().getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Compares the name and size first, the file is only hashed if they
+     * match.
+     */
+    private static boolean isUnchanged(RemoteAttachment current, File file) throws IOException {
+        if (current == null || current.getFileSize() != file.length()) {
+            return false;
+        }
+        String digest = digestOf(current.getComment());
+        return digest != null && digest.equals(ContentDigest.sha256(file));
+    }
+
+    private static String digestOf(String comment) {
+        if (comment == null) {
+            return null;
+        }
+        Matcher matcher = DIGEST.matcher(comment);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private boolean isCompressible(File file) {
+        if (compressionThreshold < 0 || file.length() < compressionThreshold) {
+            return false;
+        }
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && TEXT_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return true;
+        }
+        try {
+            String type = Files.probeContentType(file.toPath());
+            return type != null && (type.startsWith("text/") || type.endsWith("+xml") || type.endsWith("/xml")
+                    || type.endsWith("/json") || type.endsWith("/javascript"));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void uploadWithRetry(ContentBean parent, String attachmentId, File file, boolean compress, String comment, boolean tagged,
+            Result result) {
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            try {
+                FileChannelBody body = new FileChannelBody(file, file.getName(), progressListener(file), tagged);
+                ContentBody commentBody = tagged ? tag(body, comment) : comment == null ? null
+                        : new StringBody(comment, ContentType.create("text/plain", StandardCharsets.UTF_8));
+                AtomicLong compressed = new AtomicLong();
+                LongConsumer sent = compress ? compressed::set : null;
+                if (attachmentId == null) {
+                    client.uploadAttachment(parent.getId(), body, commentBody, sent).get();
+                } else {
+                    // a new version of the existing attachment
+                    client.updateAttachment(parent.getId(), attachmentId, body, commentBody, sent).get();
+                }
+                if (compress) {
+                    result.compressed(file, compressed.get());
+                    log.debug(String.format("Uploaded %s compressed to %.1f%%", file.getName(), 100.0 * compressed.get() / Math.max(file.length(), 1)));
+                } else {
+                    result.uploaded(file);
+                    log.debug("Uploaded " + file.getName());
+                }
+                if (state != null) {
+                    try {
+                        state.uploaded(parent.getId(), file);
+                    } catch (IOException e) {
+                        log.warn("Unable to update the upload state: " + e.getMessage());
+                    }
+                }
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.failed(file, e);
+                return;
+            } catch (Exception e) {
+                if (attempt == retries) {
+                    log.warn("Unable to upload " + file.getName() + ": " + e.getMessage());
+                    result.failed(file, e);
+                } else {
+                    log.info("Upload of " + file.getName() + " failed, retrying (" + (attempt + 1) + "/" + retries + ")");
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MILLIS * (attempt + 1));
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        result.failed(file, ie);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the comment part tagged with the digest of the file.
+     */
+    private static ContentBody tag(FileChannelBody body, String comment) {
+        return StringUtils.isBlank(comment) ? body.digestComment("sha256:", "") : body.digestComment(comment + " [sha256:", "]");
+    }
+
+    private FileChannelBody.ProgressListener progressListener(File file) {
+        if (file.length() < PROGRESS_THRESHOLD) {
+            return null;
+        }
+        AtomicLong reported = new AtomicLong();
+        return (f, transferred, total) -> {
+            long percent = transferred * 100 / total;
+            long step = percent / 10 * 10;
+            if (step > reported.get() && reported.getAndSet(step) < step) {
+                log.info("Uploading " + f.getName() + ": " + step + "%");
+            }
+        };
+    }
+
+    /**
+     * What uploading a file would do.
+     */
+    public static class Planned {
+
+        /**
+         * The planned upload.
+         */
+        public enum Action {
+            /**
+             * A new attachment.
+             */
+            UPLOAD,
+            /**
+             * A new version of an existing attachment.
+             */
+            UPDATE,
+            /**
+             * Already attached with the same content.
+             */
+            UNCHANGED,
+            /**
+             * Uploaded by a previous, interrupted run.
+             */
+            RESUMED
+        }
+
+        private final File file;
+        private final String name;
+        private final Action action;
+
+        Planned(File file, String name, Action action) {
+            this.file = file;
+            this.name = name;
+            this.action = action;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the name of the attachment.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        /**
+         * @return <code>true</code> if the file has to be sent.
+         */
+        public boolean isSent() {
+            return action == Action.UPLOAD || action == Action.UPDATE;
+        }
+    }
+
+    /**
+     * Aggregated outcome of an upload run.
+     */
+    public static class Result {
+
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong resumed = new AtomicLong();
+        private final AtomicLong unchanged = new AtomicLong();
+        private final AtomicLong savedBytes = new AtomicLong();
+        private final AtomicLong rawBytes = new AtomicLong();
+        private final AtomicLong compressedBytes = new AtomicLong();
+        private final Map<File, Exception> failures = new ConcurrentHashMap<>();
+        private long elapsedNanos;
+
+        void uploaded(File file) {
+            files.incrementAndGet();
+            bytes.addAndGet(file.length());
+        }
+
+        void compressed(File file, long length) {
+            files.incrementAndGet();
+            bytes.addAndGet(length);
+            rawBytes.addAndGet(file.length());
+            compressedBytes.addAndGet(length);
+        }
+
+        void unchanged(File file) {
+            unchanged.incrementAndGet();
+            savedBytes.addAndGet(file.length());
+        }
+
+        void failed(File file, Exception e) {
+            failures.put(file, e);
+        }
+
+        public long getFiles() {
+            return files.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * @return the number of files skipped because a previous run had
+         * already uploaded them.
+         */
+        public long getResumed() {
+            return resumed.get();
+        }
+
+        /**
+         * @return the number of files skipped because the page already had
+         * them.
+         */
+        public long getUnchanged() {
+            return unchanged.get();
+        }
+
+        /**
+         * @return the bytes not uploaded because the files were unchanged.
+         */
+        public long getSavedBytes() {
+            return savedBytes.get();
+        }
+
+        /**
+         * @return the compressed size of the compressed files over their
+         * original size, 1 if no file was compressed.
+         */
+        public double getCompressionRatio() {
+            return rawBytes.get() == 0 ? 1 : (double) compressedBytes.get() / rawBytes.get();
+        }
+
+        public Map<File, Exception> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        /**
+         * @return a human readable throughput summary.
+         */
+        public String getSummary() {
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            double megabytes = bytes.get() / (1024.0 * 1024.0);
+            String summary = String.format("Uploaded %d attachment(s), %.2f MB in %.1f s (%.2f files/s, %.2f MB/s)",
+                    files.get(), megabytes, seconds, files.get() / seconds, megabytes / seconds);
+            if (rawBytes.get() > 0) {
+                summary += String.format(", %.2f MB compressed to %.1f%%", rawBytes.get() / (1024.0 * 1024.0), getCompressionRatio() * 100);
+            }
+            if (unchanged.get() > 0) {
+                summary += String.format(", %d unchanged (%.2f MB saved)", unchanged.get(), savedBytes.get() / (1024.0 * 1024.0));
+            }
+            if (resumed.get() > 0) {
+                summary += ", " + resumed.get() + " already uploaded by a previous run";
+            }
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import com.github.lucapino.confluence.helpers.ChangePlan;
+import com.github.lucapino.confluence.helpers.Timings;
+import java.lang.ref.WeakReference;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+
+/**
+ * Build-session scoped registry of {@link ConfluenceClient}s.
+ * <p>
+ * The plugin class realm is shared by every module of a reactor build, so all
+ * the executions of the plugin talking to the same server with the same
+ * account share one connection pool, one executor and one login session. The
+ * clients are closed when the session ends, after the tasks registered with
+ * {@link #atSessionEnd}, or by a JVM shutdown hook if the build ends
+ * abnormally.
+ */
+public final class ClientRegistry {
+
+    private static final Map<Key, ConfluenceClient> CLIENTS = new HashMap<>();
+    private static final Map<String, Runnable> SESSION_END_TASKS = new LinkedHashMap<>();
+    private static WeakReference<MavenSession> currentSession = new WeakReference<>(null);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(ClientRegistry::shutdown, "confluence-client-shutdown"));
+    }
+
+    private ClientRegistry() {
+    }
+
+    /**
+     * Returns the client for the given server and account, creating it if
+     * this is the first request in the current session. The client keeps the
+     * number of threads it was created with.
+     *
+     * @param session the current Maven session, may be {@code null}.
+     * @param url the Confluence base URL.
+     * @param serverId the server id in <i>settings.xml</i>.
+     * @param username the user to authenticate with.
+     * @param password the password of the user.
+     * @param token a personal access token, used instead of the user and
+     * password if not {@code null}.
+     * @param threads the maximum number of concurrent requests.
+     *
+     * @return the shared client.
+     *
+     * @throws URISyntaxException if {@code url} is not a valid URI.
+     */
+    public static synchronized ConfluenceClient getClient(MavenSession session, String url, String serverId,
+            String username, String password, String token, int threads) throws URISyntaxException {
+        startSession(session);
+        Key key = new Key(url, serverId, username, password, token);
+        ConfluenceClient client = CLIENTS.get(key);
+        if (client == null) {
+            client = new ConfluenceClient(url, username, password, token, threads);
+            CLIENTS.put(key, client);
+        }
+        return client;
+    }
+
+    /**
+     * Registers a task to run once when the session ends, before the clients
+     * are closed. A task registered again under the same name replaces the
+     * previous one and runs after the others. Nothing is registered without
+     * a session.
+     *
+     * @param session the current Maven session, may be {@code null}.
+     * @param name the name of the task.
+     * @param task the task.
+     */
+    public static synchronized void atSessionEnd(MavenSession session, String name, Runnable task) {
+        if (session == null) {
+            return;
+        }
+        startSession(session);
+        SESSION_END_TASKS.remove(name);
+        SESSION_END_TASKS.put(name, task);
+    }
+
+    /**
+     * Runs the tasks registered for the session and closes the clients. The
+     * tasks still see the session as the current one, so the clients they
+     * use are the ones of the session. Called when Maven ends the session;
+     * whoever drives the mojos without Maven (i.e. the load harness) calls it
+     * instead.
+     *
+     * @param session the session that ended.
+     */
+    public static void endSession(MavenSession session) {
+        List<Runnable> tasks;
+        synchronized (ClientRegistry.class) {
+            if (session == null || currentSession.get() != session) {
+                return;
+            }
+            tasks = new ArrayList<>(SESSION_END_TASKS.values());
+            SESSION_END_TASKS.clear();
+        }
+        RuntimeException failure = null;
+        for (Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // the other tasks still run and the clients are still closed
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        synchronized (ClientRegistry.class) {
+            SESSION_END_TASKS.clear();
+            if (currentSession.get() == session) {
+                currentSession = new WeakReference<>(null);
+            }
+        }
+        shutdown();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Closes all the clients of the current session. A later
+     * {@link #getClient} call will transparently open a new one.
+     */
+    public static void shutdown() {
+        List<ConfluenceClient> clients;
+        synchronized (ClientRegistry.class) {
+            clients = new ArrayList<>(CLIENTS.values());
+            CLIENTS.clear();
+        }
+        for (ConfluenceClient client : clients) {
+            client.close();
+        }
+    }
+
+    /**
+     * Starts tracking {@code session} if it is a new one, i.e. the first
+     * execution of a build or a new build in the same JVM (an embedded or
+     * daemon Maven).
+     */
+    private static void startSession(MavenSession session) {
+        if (session == null || currentSession.get() == session) {
+            return;
+        }
+        closeAll();
+        SESSION_END_TASKS.clear();
+        Timings.reset();
+        ChangePlan.reset();
+        currentSession = new WeakReference<>(session);
+        MavenExecutionRequest request = session.getRequest();
+        if (request != null) {
+            request.setExecutionListener(new SessionEndListener(request.getExecutionListener(), () -> endSession(session)));
+        }
+    }
+
+    private static synchronized void closeAll() {
+        for (ConfluenceClient client : CLIENTS.values()) {
+            client.close();
+        }
+        CLIENTS.clear();
+    }
+
+    private static final class Key {
+
+        private final String url;
+        private final String serverId;
+        private final String username;
+        private final String password;
+        private final String token;
+
+        Key(String url, String serverId, String username, String password, String token) {
+            this.url = url;
+            this.serverId = serverId;
+            this.username = username;
+            this.password = password;
+            this.token = token;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(url, other.url) && Objects.equals(serverId, other.serverId)
+                    && Objects.equals(username, other.username) && Objects.equals(password, other.password)
+                    && Objects.equals(token, other.token);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, serverId, username, password, token);
+        }
+    }
+}
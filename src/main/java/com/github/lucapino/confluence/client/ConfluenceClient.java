@@ -0,0 +1,294 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import com.github.lucapino.confluence.model.RemoteAttachment;
+import com.github.lucapino.confluence.rest.client.api.ClientFactory;
+import com.github.lucapino.confluence.rest.client.impl.ClientFactoryImpl;
+import com.github.lucapino.confluence.rest.core.api.domain.content.AttachmentResultsBean;
+import com.github.lucapino.confluence.rest.core.api.domain.content.BodyBean;
+import com.github.lucapino.confluence.rest.core.api.domain.content.ContentBean;
+import com.github.lucapino.confluence.rest.core.api.domain.content.StorageBean;
+import com.github.lucapino.confluence.rest.core.impl.APIUriProvider;
+import java.io.Closeable;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.mime.content.ContentBody;
+
+/**
+ * A connection to a Confluence server: the HTTP connection pool, the bounded
+ * executor running the asynchronous REST calls and the client factory built
+ * on top of them.
+ * <p>
+ * Multi-step operations are composed with {@link #async(Callable)}, whose
+ * stages run on a separate pipeline executor: a stage waiting for a REST call
+ * never holds one of the bounded request threads, so independent steps can
+ * overlap without risk of starving the pool.
+ */
+public class ConfluenceClient implements Closeable {
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+    private static final int ATTACHMENTS_PAGE_SIZE = 200;
+
+    private final URI baseUri;
+    private final PooledHttpRequestService requestService;
+    private final APIUriProvider uriProvider;
+    private final ThreadPoolExecutor executorService;
+    private final ExecutorService pipelineExecutor;
+    private final ClientFactory factory;
+
+    /**
+     * Constructor.
+     *
+     * @param url the Confluence base URL.
+     * @param username the user to authenticate with.
+     * @param password the password of the user.
+     * @param token a personal access token, used instead of the user and
+     * password if not {@code null}.
+     * @param threads the maximum number of concurrent requests.
+     *
+     * @throws URISyntaxException if {@code url} is not a valid URI.
+     */
+    public ConfluenceClient(String url, String username, String password, String token, int threads) throws URISyntaxException {
+        int size = Math.max(1, threads);
+        this.baseUri = new URI(url);
+        this.requestService = new PooledHttpRequestService(baseUri, username, password, token, size);
+        this.uriProvider = new APIUriProvider(baseUri);
+        this.executorService = new ThreadPoolExecutor(size, size, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory("confluence-client"));
+        this.executorService.allowCoreThreadTimeOut(true);
+        // pipeline stages only wait on request futures, never on each other,
+        // so bounding them cannot deadlock
+        ThreadPoolExecutor pipeline = new ThreadPoolExecutor(size, size, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory("confluence-pipeline"));
+        pipeline.allowCoreThreadTimeOut(true);
+        this.pipelineExecutor = pipeline;
+        this.factory = new ClientFactoryImpl(executorService, requestService, uriProvider);
+    }
+
+    /**
+     * @return the maximum number of concurrent requests.
+     */
+    public int getThreads() {
+        return executorService.getMaximumPoolSize();
+    }
+
+    public URI getBaseUri() {
+        return baseUri;
+    }
+
+    public ClientFactory getClientFactory() {
+        return factory;
+    }
+
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    public PooledHttpRequestService getRequestService() {
+        return requestService;
+    }
+
+    public APIUriProvider getUriProvider() {
+        return uriProvider;
+    }
+
+    /**
+     * Runs a step of an operation asynchronously.
+     *
+     * @param <T> the result type.
+     * @param step the step, may block on REST calls.
+     *
+     * @return the future result of the step; failures are reported as the
+     * cause of the {@code CompletionException}.
+     */
+    public <T> CompletableFuture<T> async(Callable<T> step) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        pipelineExecutor.execute(() -> {
+            try {
+                future.complete(step.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Updates a page streaming its storage value into the request, instead of
+     * serializing it from the bean.
+     *
+     * @param content the page to update; its body storage value is ignored
+     * and the bean is left untouched.
+     * @param body the producer of the body storage value.
+     *
+     * @return the future updated page.
+     */
+    public Future<ContentBean> updateContent(ContentBean content, StreamingJsonEntity.BodyWriter body) {
+        ContentBean streamed = withPlaceholder(content);
+        return executorService.submit(() -> {
+            URI api = uriProvider.getRestApiBaseUri();
+            URI uri = new URIBuilder(api).setPath(api.getPath() + "/content/" + streamed.getId()).build();
+            return requestService.executeStreamingPutRequest(uri, streamed, body, ContentBean.class);
+        });
+    }
+
+    /**
+     * Copies the fields sent by an update, replacing the body storage value
+     * with the placeholder of the streamed value.
+     */
+    private static ContentBean withPlaceholder(ContentBean content) {
+        StorageBean storage = new StorageBean();
+        storage.setRepresentation(content.getBody().getStorage().getRepresentation());
+        storage.setValue(StreamingJsonEntity.PLACEHOLDER);
+        BodyBean body = new BodyBean();
+        body.setStorage(storage);
+        ContentBean copy = new ContentBean(content.getId());
+        copy.setType(content.getType());
+        copy.setStatus(content.getStatus());
+        copy.setTitle(content.getTitle());
+        copy.setSpace(content.getSpace());
+        copy.setVersion(content.getVersion());
+        copy.setAncestors(content.getAncestors());
+        copy.setBody(body);
+        return copy;
+    }
+
+    /**
+     * Uploads a file as attachment of a page, streaming it from disk.
+     *
+     * @param pageId the id of the page.
+     * @param file the file part, usually a {@link FileChannelBody}.
+     * @param comment the comment part, sent after the file part, may be
+     * {@code null}.
+     * @param compressed receives the number of compressed bytes sent;
+     * {@code null} to send the request uncompressed.
+     *
+     * @return the future uploaded attachments.
+     */
+    public Future<AttachmentResultsBean> uploadAttachment(String pageId, ContentBody file, ContentBody comment, LongConsumer compressed) {
+        return executorService.submit(() -> {
+            URI api = uriProvider.getRestApiBaseUri();
+            URI uri = new URIBuilder(api).setPath(api.getPath() + "/content/" + pageId + "/child/attachment").build();
+            return requestService.executeUploadRequest(uri, file, comment, compressed, AttachmentResultsBean.class);
+        });
+    }
+
+    /**
+     * Uploads a new version of an existing attachment, streaming it from
+     * disk.
+     *
+     * @param pageId the id of the page.
+     * @param attachmentId the id of the attachment.
+     * @param file the file part, usually a {@link FileChannelBody}.
+     * @param comment the comment part, sent after the file part, may be
+     * {@code null}.
+     * @param compressed receives the number of compressed bytes sent;
+     * {@code null} to send the request uncompressed.
+     *
+     * @return the future updated attachment.
+     */
+    public Future<RemoteAttachment> updateAttachment(String pageId, String attachmentId, ContentBody file, ContentBody comment, LongConsumer compressed) {
+        return executorService.submit(() -> {
+            URI api = uriProvider.getRestApiBaseUri();
+            URI uri = new URIBuilder(api).setPath(api.getPath() + "/content/" + pageId + "/child/attachment/" + attachmentId + "/data").build();
+            return requestService.executeUploadRequest(uri, file, comment, compressed, RemoteAttachment.class);
+        });
+    }
+
+    /**
+     * Lists the attachments of a page, fetching all the pages of the
+     * collection.
+     *
+     * @param pageId the id of the page.
+     *
+     * @return the future attachments, by file name.
+     */
+    public Future<Map<String, RemoteAttachment>> getAttachments(String pageId) {
+        return executorService.submit(() -> {
+            URI api = uriProvider.getRestApiBaseUri();
+            Map<String, RemoteAttachment> attachments = new LinkedHashMap<>();
+            int start = 0;
+            RemoteAttachment.Results page;
+            do {
+                URI uri = new URIBuilder(api).setPath(api.getPath() + "/content/" + pageId + "/child/attachment")
+                        .addParameter("start", Integer.toString(start))
+                        .addParameter("limit", Integer.toString(ATTACHMENTS_PAGE_SIZE))
+                        .build();
+                page = requestService.executeGetRequest(uri, RemoteAttachment.Results.class);
+                for (RemoteAttachment attachment : page.getResults()) {
+                    attachments.put(attachment.getTitle(), attachment);
+                }
+                start += page.getResults().size();
+            } while (page.getResults().size() == ATTACHMENTS_PAGE_SIZE);
+            return attachments;
+        });
+    }
+
+    /**
+     * Waits for the pending requests to complete, then releases threads and
+     * connections.
+     */
+    @Override
+    public void close() {
+        pipelineExecutor.shutdown();
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
+                executorService.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            requestService.close();
+        }
+    }
+
+    /**
+     * Daemon threads, so a forgotten client never keeps the JVM alive.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final int pool = POOL_COUNTER.incrementAndGet();
+        private final AtomicInteger counter = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + pool + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
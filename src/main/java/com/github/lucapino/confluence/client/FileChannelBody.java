@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import com.github.lucapino.confluence.helpers.ContentDigest;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+import org.apache.http.entity.mime.content.ContentBody;
+
+/**
+ * A multipart file body streamed from a {@link FileChannel} in fixed size
+ * chunks, so the file is never loaded on the heap, reporting the progress of
+ * the transfer.
+ * <p>
+ * The length of the body is known in advance, so the request is sent with a
+ * <code>Content-Length</code> instead of being chunked. The body can be written
+ * more than once, which makes the request repeatable.
+ * <p>
+ * The SHA-256 of the file can be computed while it is sent, saving a read of
+ * the file, and sent in a later part of the same request, see
+ * {@link #digestComment(String, String)}.
+ */
+public class FileChannelBody extends AbstractContentBody {
+
+    /**
+     * Size of the slices transferred from the file at once.
+     */
+    private static final long CHUNK_SIZE = 1024 * 1024;
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+    private static final int DIGEST_LENGTH = 64;
+
+    private final File file;
+    private final String filename;
+    private final ProgressListener listener;
+    private final boolean digested;
+    private volatile String digest;
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to send.
+     * @param filename the name of the file in the request.
+     * @param listener notified of the progress, may be {@code null}.
+     */
+    public FileChannelBody(File file, String filename, ProgressListener listener) {
+        this(file, filename, listener, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to send.
+     * @param filename the name of the file in the request.
+     * @param listener notified of the progress, may be {@code null}.
+     * @param digested whether the SHA-256 of the file is computed while it is
+     * sent.
+     */
+    public FileChannelBody(File file, String filename, ProgressListener listener, boolean digested) {
+        super(ContentType.DEFAULT_BINARY);
+        this.file = file;
+        this.filename = filename;
+        this.listener = listener;
+        this.digested = digested;
+    }
+
+    @Override
+    public String getFilename() {
+        return filename;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (digested) {
+            writeDigested(out);
+            return;
+        }
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, Math.min(CHUNK_SIZE, size - position), target);
+                if (listener != null) {
+                    listener.transferred(file, position, size);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private void writeDigested(OutputStream out) throws IOException {
+        digest = null;
+        MessageDigest sha256 = ContentDigest.newSha256();
+        ByteBuffer buffer = ByteBuffer.allocate(DIGEST_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                sha256.update(buffer.array(), 0, read);
+                out.write(buffer.array(), 0, read);
+                buffer.clear();
+                position += read;
+                if (listener != null) {
+                    listener.transferred(file, position, size);
+                }
+            }
+        }
+        out.flush();
+        digest = ContentDigest.toHex(sha256.digest());
+    }
+
+    /**
+     * A text part made of {@code prefix}, the SHA-256 of the file and
+     * {@code suffix}. It must follow this part in the request, and this body
+     * must be digested.
+     *
+     * @param prefix the text before the digest.
+     * @param suffix the text after the digest.
+     *
+     * @return the comment part.
+     */
+    public ContentBody digestComment(String prefix, String suffix) {
+        if (!digested) {
+            throw new IllegalStateException("The file is not digested while it is sent");
+        }
+        return new DigestComment(prefix, suffix);
+    }
+
+    @Override
+    public String getTransferEncoding() {
+        return "binary";
+    }
+
+    @Override
+    public long getContentLength() {
+        return file.length();
+    }
+
+    /**
+     * A text part completed with the digest of the file written before it.
+     */
+    private class DigestComment extends AbstractContentBody {
+
+        private final byte[] prefix;
+        private final byte[] suffix;
+
+        DigestComment(String prefix, String suffix) {
+            super(ContentType.create("text/plain", StandardCharsets.UTF_8));
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+            this.suffix = suffix.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String getFilename() {
+            return null;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            String sent = digest;
+            if (sent == null) {
+                throw new IOException("The digest of " + file.getName() + " is written before the file");
+            }
+            out.write(prefix);
+            out.write(sent.getBytes(StandardCharsets.US_ASCII));
+            out.write(suffix);
+        }
+
+        @Override
+        public String getTransferEncoding() {
+            return "8bit";
+        }
+
+        @Override
+        public long getContentLength() {
+            return prefix.length + DIGEST_LENGTH + suffix.length;
+        }
+    }
+
+    /**
+     * Receives the progress of a transfer.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        /**
+         * @param file the file being sent.
+         * @param transferred the number of bytes sent so far.
+         * @param total the size of the file.
+         */
+        void transferred(File file, long transferred, long total);
+    }
+}
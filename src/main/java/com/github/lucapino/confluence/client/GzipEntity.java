@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+/**
+ * A request entity compressed with gzip while it is sent, without temporary
+ * files, and declared with <code>Content-Encoding: gzip</code>: the content
+ * is decoded before it reaches the server, so the names and types of the
+ * parts are kept. The compressed length is not known in advance, so the
+ * request is chunked.
+ */
+public class GzipEntity extends HttpEntityWrapper {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final LongConsumer compressed;
+
+    /**
+     * Constructor.
+     *
+     * @param wrapped the entity to compress.
+     * @param compressed receives the number of compressed bytes after each
+     * write, may be {@code null}.
+     */
+    public GzipEntity(HttpEntity wrapped, LongConsumer compressed) {
+        super(wrapped);
+        this.compressed = compressed;
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return new BasicHeader(HTTP.CONTENT_ENCODING, "gzip");
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    @Override
+    public InputStream getContent() {
+        throw new UnsupportedOperationException("The compressed content can only be written");
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(out);
+        // the request stream is closed by the connection, only finish the gzip trailer
+        GZIPOutputStream gzip = new GZIPOutputStream(counter, BUFFER_SIZE);
+        wrappedEntity.writeTo(gzip);
+        gzip.finish();
+        gzip.flush();
+        if (compressed != null) {
+            compressed.accept(counter.getCount());
+        }
+    }
+}
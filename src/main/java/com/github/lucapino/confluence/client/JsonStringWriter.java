@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A {@link Writer} escaping everything written to it as the content of a JSON
+ * string literal. The enclosing quotes are not written.
+ */
+public class JsonStringWriter extends Writer {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+
+    /**
+     * Constructor.
+     *
+     * @param out the writer receiving the escaped characters.
+     */
+    public JsonStringWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            String escaped = escape(cbuf[i]);
+            if (escaped != null) {
+                out.write(cbuf, start, i - start);
+                out.write(escaped);
+                start = i + 1;
+            }
+        }
+        out.write(cbuf, start, end - start);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int start = off;
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            String escaped = escape(str.charAt(i));
+            if (escaped != null) {
+                out.write(str, start, i - start);
+                out.write(escaped);
+                start = i + 1;
+            }
+        }
+        out.write(str, start, end - start);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        String escaped = escape((char) c);
+        if (escaped != null) {
+            out.write(escaped);
+        } else {
+            out.write(c);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Does not close the underlying writer, which still has to receive the
+     * rest of the JSON document.
+     */
+    @Override
+    public void close() throws IOException {
+        out.flush();
+    }
+
+    private static String escape(char c) {
+        switch (c) {
+            case '"':
+                return "\\\"";
+            case '\\':
+                return "\\\\";
+            case '\n':
+                return "\\n";
+            case '\r':
+                return "\\r";
+            case '\t':
+                return "\\t";
+            case '\b':
+                return "\\b";
+            case '\f':
+                return "\\f";
+            case '\u2028':
+            case '\u2029':
+                return unicode(c);
+            default:
+                return c < 0x20 ? unicode(c) : null;
+        }
+    }
+
+    private static String unicode(char c) {
+        return new String(new char[]{'\\', 'u', HEX[(c >> 12) & 0xf], HEX[(c >> 8) & 0xf], HEX[(c >> 4) & 0xf], HEX[c & 0xf]});
+    }
+}
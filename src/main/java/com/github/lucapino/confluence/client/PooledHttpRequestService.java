@@ -0,0 +1,678 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import com.github.lucapino.confluence.rest.core.api.RequestException;
+import com.github.lucapino.confluence.rest.core.api.RequestService;
+import com.github.lucapino.confluence.rest.core.api.misc.RestException;
+import com.github.lucapino.confluence.rest.core.api.misc.SecurityException;
+import com.github.lucapino.confluence.rest.core.api.util.HttpMethodFactory;
+import com.github.lucapino.confluence.rest.core.impl.AbstractRequestService;
+import com.github.lucapino.confluence.helpers.Timings;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A {@link RequestService} backed by a pooled, keep-alive HTTP client.
+ * <p>
+ * Unlike the default {@code HttpAuthRequestService}, a single instance can be
+ * shared by many threads and by many mojo executions: the connection pool is
+ * sized explicitly and every request gets its own {@link HttpClientContext},
+ * while the cookies and the preemptive Basic authentication cache are shared.
+ * <p>
+ * The credentials are only sent until the server opens a session: a single
+ * request logs in while the others wait for its session cookie, which is then
+ * used by every thread and execution sharing the service. A request rejected
+ * with 401 Unauthorized once the session expired logs in again and is
+ * retried. With a personal access token, the token is sent with every
+ * request instead.
+ * <p>
+ * Every request takes a permit from a {@link TokenBucket}. Requests throttled
+ * by the server (429 Too Many Requests, 503 Service Unavailable) pause all the
+ * others for the <code>Retry-After</code> delay, or an exponential backoff
+ * with jitter, and are retried if their entity can be sent again.
+ */
+public class PooledHttpRequestService extends AbstractRequestService implements RequestService, Closeable {
+
+    /**
+     * Idle connections older than this are evicted from the pool.
+     */
+    private static final long IDLE_TIMEOUT_SECONDS = 30;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final long INITIAL_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+    private static final int UNAUTHORIZED = 401;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final AuthCache authCache;
+    private final CookieStore cookies = new BasicCookieStore();
+    private final boolean sessionAuth;
+    private final ReentrantLock login = new ReentrantLock();
+    private final AtomicLong logins = new AtomicLong();
+    private final AtomicLong sessionRefreshes = new AtomicLong();
+    private volatile boolean sessionless;
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private volatile TokenBucket bucket = new TokenBucket(0, 1);
+    private double requestsPerSecond;
+    private int burst = 1;
+    private volatile int throttleRetries = 5;
+
+    /**
+     * Constructor.
+     *
+     * @param baseUri the Confluence base URI.
+     * @param username the user to authenticate with, may be {@code null}.
+     * @param password the password of the user.
+     * @param token a personal access token, used instead of the user and
+     * password if not {@code null}.
+     * @param maxConnections the maximum number of pooled connections.
+     */
+    public PooledHttpRequestService(URI baseUri, String username, String password, String token, int maxConnections) {
+        HttpHost host = new HttpHost(baseUri.getHost(), baseUri.getPort(), baseUri.getScheme());
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .evictExpiredConnections()
+                .evictIdleConnections(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .setDefaultCookieStore(cookies);
+        authCache = new BasicAuthCache();
+        sessionAuth = token == null && username != null;
+        if (token != null) {
+            builder.setDefaultHeaders(Collections.singletonList(new BasicHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token)));
+        } else if (username != null) {
+            CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+            credentialsProvider.setCredentials(new AuthScope(host.getHostName(), host.getPort()),
+                    new UsernamePasswordCredentials(username, password));
+            builder.setDefaultCredentialsProvider(credentialsProvider);
+            // send credentials with the first request instead of waiting for a challenge
+            authCache.put(host, new BasicScheme());
+        }
+        httpClient = builder.build();
+    }
+
+    /**
+     * Sets the rate limit and how many times a throttled request is retried.
+     *
+     * @param requestsPerSecond the sustained rate, 0 or less for no limit.
+     * @param burst the number of requests that can be sent at once after an
+     * idle period.
+     * @param retries how many times a throttled request is retried.
+     */
+    public synchronized void setThrottling(double requestsPerSecond, int burst, int retries) {
+        // the executions sharing this service usually repeat the same settings
+        if (requestsPerSecond != this.requestsPerSecond || burst != this.burst) {
+            this.bucket = new TokenBucket(requestsPerSecond, burst);
+            this.requestsPerSecond = requestsPerSecond;
+            this.burst = burst;
+        }
+        this.throttleRetries = Math.max(0, retries);
+    }
+
+    /**
+     * @return the number of responses throttled by the server.
+     */
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    /**
+     * @return the number of requests sent again after being throttled.
+     */
+    public long getRetriedCount() {
+        return retried.get();
+    }
+
+    /**
+     * @return the number of requests that sent the credentials.
+     */
+    public long getLoginCount() {
+        return logins.get();
+    }
+
+    /**
+     * @return the number of sessions found expired and opened again.
+     */
+    public long getSessionRefreshCount() {
+        return sessionRefreshes.get();
+    }
+
+    @Override
+    public <T> T executeGetRequest(URI uri, Class<T> resultClass) throws RequestException {
+        return execute(HttpMethodFactory.createGetMethod(uri), resultClass);
+    }
+
+    @Override
+    public InputStream executeGetRequestForDownload(URI uri) throws RequestException {
+        HttpRequestBase method = HttpMethodFactory.createGetMethodForDownload(uri);
+        for (boolean refreshed = false;; refreshed = true) {
+            acquire();
+            long start = System.nanoTime();
+            ReentrantLock loggingIn = loginLock();
+            boolean credentials = sendsCredentials(loggingIn);
+            List<Cookie> session = cookies.getCookies();
+            try {
+                CloseableHttpResponse response = httpClient.execute(method, newContext(credentials));
+                // only the time to the response headers, the body is read by the caller
+                Timings.record("download", start, 0);
+                int status = response.getStatusLine().getStatusCode();
+                loggedIn(loggingIn, status);
+                loggingIn = null;
+                if (isSuccess(status)) {
+                    // the connection goes back to the pool when the caller closes the stream
+                    return response.getEntity().getContent();
+                }
+                try {
+                    if (status == UNAUTHORIZED && !credentials && sessionAuth && !refreshed) {
+                        expireSession(session);
+                        continue;
+                    }
+                    throw createRestException(response);
+                } finally {
+                    response.close();
+                }
+            } catch (IOException | RestException e) {
+                throw new RequestException(e);
+            } finally {
+                if (loggingIn != null) {
+                    loggingIn.unlock();
+                }
+            }
+        }
+    }
+
+    @Override
+    public <T> T executePostRequest(URI uri, Object payload, Class<T> resultClass) throws RequestException {
+        try {
+            return execute(HttpMethodFactory.createPostMethod(uri, getGson().toJson(payload)), resultClass);
+        } catch (IOException e) {
+            throw new RequestException(e);
+        }
+    }
+
+    @Override
+    public <T> T executePutRequest(URI uri, Object payload, Class<T> resultClass) throws RequestException {
+        try {
+            return execute(HttpMethodFactory.createPutMethod(uri, getGson().toJson(payload)), resultClass);
+        } catch (IOException e) {
+            throw new RequestException(e);
+        }
+    }
+
+    @Override
+    public <T> T executePostRequestForUpload(URI uri, InputStream inputStream, String fileName, String comment, Class<T> resultClass) throws RequestException {
+        try {
+            return execute(HttpMethodFactory.createPostMethodForUpload(uri, inputStream, fileName, comment), resultClass);
+        } catch (IOException e) {
+            throw new RequestException(e);
+        }
+    }
+
+    /**
+     * Executes a PUT request whose JSON payload contains a value produced
+     * while the request is sent, see {@link StreamingJsonEntity}.
+     *
+     * @param <T> the result type.
+     * @param uri the request URI.
+     * @param payload the payload, with the streamed value set to
+     * {@link StreamingJsonEntity#PLACEHOLDER}.
+     * @param body the producer of the streamed value.
+     * @param resultClass the class of the JSON response.
+     *
+     * @return the parsed response.
+     *
+     * @throws RequestException if the request fails.
+     */
+    public <T> T executeStreamingPutRequest(URI uri, Object payload, StreamingJsonEntity.BodyWriter body, Class<T> resultClass) throws RequestException {
+        HttpPut method = new HttpPut(uri);
+        method.setEntity(new StreamingJsonEntity(getGson().toJson(payload), body));
+        return execute(method, resultClass);
+    }
+
+    /**
+     * Uploads an attachment from an arbitrary multipart body, so that large
+     * files can be streamed instead of going through an {@code InputStream}.
+     *
+     * @param <T> the result type.
+     * @param uri the attachment collection URI.
+     * @param file the file part.
+     * @param comment the attachment comment, may be {@code null}.
+     * @param resultClass the class of the JSON response.
+     *
+     * @return the parsed response.
+     *
+     * @throws RequestException if the request fails.
+     */
+    public <T> T executeUploadRequest(URI uri, ContentBody file, String comment, Class<T> resultClass) throws RequestException {
+        return executeUploadRequest(uri, file, comment, null, resultClass);
+    }
+
+    /**
+     * Uploads an attachment from an arbitrary multipart body, optionally
+     * compressing the request with gzip.
+     *
+     * @param <T> the result type.
+     * @param uri the attachment collection URI.
+     * @param file the file part.
+     * @param comment the attachment comment, may be {@code null}.
+     * @param compressed receives the number of compressed bytes sent;
+     * {@code null} to send the request uncompressed.
+     * @param resultClass the class of the JSON response.
+     *
+     * @return the parsed response.
+     *
+     * @throws RequestException if the request fails.
+     */
+    public <T> T executeUploadRequest(URI uri, ContentBody file, String comment, LongConsumer compressed, Class<T> resultClass) throws RequestException {
+        return executeUploadRequest(uri, file, comment == null ? null : new StringBody(comment, ContentType.create("text/plain", StandardCharsets.UTF_8)),
+                compressed, resultClass);
+    }
+
+    /**
+     * Uploads an attachment from arbitrary multipart bodies, the comment part
+     * being sent after the file part.
+     *
+     * @param <T> the result type.
+     * @param uri the attachment collection URI.
+     * @param file the file part.
+     * @param comment the comment part, may be {@code null}.
+     * @param compressed receives the number of compressed bytes sent;
+     * {@code null} to send the request uncompressed.
+     * @param resultClass the class of the JSON response.
+     *
+     * @return the parsed response.
+     *
+     * @throws RequestException if the request fails.
+     */
+    public <T> T executeUploadRequest(URI uri, ContentBody file, ContentBody comment, LongConsumer compressed, Class<T> resultClass) throws RequestException {
+        HttpPost method = new HttpPost(uri);
+        method.addHeader("X-Atlassian-Token", "no-check");
+        MultipartEntityBuilder entity = MultipartEntityBuilder.create()
+                .setMode(HttpMultipartMode.BROWSER_COMPATIBLE)
+                .setCharset(StandardCharsets.UTF_8)
+                .addPart("file", file);
+        if (comment != null) {
+            entity.addPart("comment", comment);
+        }
+        method.setEntity(compressed == null ? entity.build() : new GzipEntity(entity.build(), compressed));
+        return execute(method, resultClass);
+    }
+
+    /**
+     * Closes all pooled connections.
+     */
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            // nothing left to release
+        } finally {
+            connectionManager.shutdown();
+        }
+    }
+
+    private <T> T execute(HttpRequestBase method, Class<T> resultClass) throws RequestException {
+        boolean refreshed = false;
+        for (int attempt = 0;; attempt++) {
+            acquire();
+            long start = System.nanoTime();
+            CountingInputStream received = null;
+            CountingEntity sent = countSent(method);
+            ReentrantLock loggingIn = loginLock();
+            boolean credentials = sendsCredentials(loggingIn);
+            List<Cookie> session = cookies.getCookies();
+            try (CloseableHttpResponse response = httpClient.execute(method, newContext(credentials))) {
+                loggedIn(loggingIn, response.getStatusLine().getStatusCode());
+                loggingIn = null;
+                if (response.getEntity() != null) {
+                    received = new CountingInputStream(response.getEntity().getContent());
+                    response.setEntity(new InputStreamEntity(received, response.getEntity().getContentLength(),
+                            ContentType.get(response.getEntity())));
+                }
+                int status = response.getStatusLine().getStatusCode();
+                if (status == UNAUTHORIZED && sessionAuth && !credentials && !refreshed && isRepeatable(method)) {
+                    // sent with the session cookie only, the session expired
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    expireSession(session);
+                    refreshed = true;
+                    continue;
+                }
+                if (status == TOO_MANY_REQUESTS || status == SERVICE_UNAVAILABLE) {
+                    throttled.incrementAndGet();
+                    if (attempt < throttleRetries && isRepeatable(method)) {
+                        EntityUtils.consumeQuietly(response.getEntity());
+                        bucket.pause(retryDelay(response, attempt));
+                        retried.incrementAndGet();
+                        continue;
+                    }
+                }
+                return read(response, resultClass);
+            } catch (IOException e) {
+                throw new RequestException(e);
+            } finally {
+                if (loggingIn != null) {
+                    loggingIn.unlock();
+                }
+                Timings.record(operationOf(method), start, (sent == null ? 0 : sent.count) + (received == null ? 0 : received.count));
+            }
+        }
+    }
+
+    private <T> T read(CloseableHttpResponse response, Class<T> resultClass) throws RequestException {
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            if (!isSuccess(status)) {
+                throw createRestException(response);
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return null;
+            }
+            try (InputStream content = entity.getContent()) {
+                return getGson().fromJson(toJsonReader(content), resultClass);
+            }
+        } catch (IOException | RestException e) {
+            throw new RequestException(e);
+        }
+    }
+
+    private void acquire() throws RequestException {
+        try {
+            bucket.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException(e);
+        }
+    }
+
+    /**
+     * @return the name of the operation performed by {@code method}, for the
+     * timing statistics.
+     */
+    private static String operationOf(HttpRequestBase method) {
+        String path = method.getURI().getPath();
+        String verb = method.getMethod();
+        if (path.endsWith("/contentbody/convert/storage")) {
+            return "convert";
+        } else if (path.endsWith("/data") || path.endsWith("/child/attachment")) {
+            return "GET".equals(verb) ? "list-attachments" : "upload";
+        } else if ("PUT".equals(verb)) {
+            return "update";
+        } else if ("POST".equals(verb)) {
+            return "create";
+        } else if ("DELETE".equals(verb)) {
+            return "delete";
+        }
+        return "lookup";
+    }
+
+    /**
+     * Counts the bytes of the request entity as they are written, the length
+     * of the streamed and compressed entities being unknown beforehand.
+     *
+     * @return the counter of the attempt about to be sent, {@code null} if
+     * the request has no entity.
+     */
+    private static CountingEntity countSent(HttpRequestBase method) {
+        if (!(method instanceof HttpEntityEnclosingRequest)) {
+            return null;
+        }
+        HttpEntityEnclosingRequest request = (HttpEntityEnclosingRequest) method;
+        HttpEntity entity = request.getEntity();
+        if (entity == null) {
+            return null;
+        }
+        // wrapped once, the request is the same for every attempt
+        CountingEntity counting = entity instanceof CountingEntity ? (CountingEntity) entity : new CountingEntity(entity);
+        request.setEntity(counting);
+        counting.count = 0;
+        return counting;
+    }
+
+    private static boolean isRepeatable(HttpRequestBase method) {
+        if (method instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) method).getEntity();
+            return entity == null || entity.isRepeatable();
+        }
+        return true;
+    }
+
+    /**
+     * @return the delay asked by the server with <code>Retry-After</code>,
+     * either in seconds or as a date, otherwise an exponential backoff with
+     * jitter.
+     */
+    static long retryDelay(HttpResponse response, int attempt) {
+        Header retryAfter = response.getFirstHeader("Retry-After");
+        if (retryAfter != null) {
+            String value = retryAfter.getValue().trim();
+            try {
+                return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value)));
+            } catch (NumberFormatException e) {
+                Date date = DateUtils.parseDate(value);
+                if (date != null) {
+                    return Math.max(0, date.getTime() - System.currentTimeMillis());
+                }
+            }
+        }
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+    }
+
+    private static final class CountingEntity extends HttpEntityWrapper {
+
+        private volatile long count;
+
+        CountingEntity(HttpEntity wrapped) {
+            super(wrapped);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            CountingOutputStream counter = new CountingOutputStream(out);
+            try {
+                wrappedEntity.writeTo(counter);
+            } finally {
+                count = counter.getCount();
+            }
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Lets a single request log in while no session is open.
+     *
+     * @return the held login lock if the request has to send the
+     * credentials, {@code null} if it can use the session.
+     */
+    private ReentrantLock loginLock() throws RequestException {
+        if (!sessionAuth || sessionless || hasSession()) {
+            return null;
+        }
+        try {
+            login.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestException(e);
+        }
+        if (hasSession()) {
+            // opened by the request that held the lock
+            login.unlock();
+            return null;
+        }
+        return login;
+    }
+
+    private boolean sendsCredentials(ReentrantLock loggingIn) {
+        return loggingIn != null || (sessionAuth && sessionless);
+    }
+
+    /**
+     * Releases the login lock once the response headers, and so the session
+     * cookie, are received. A server accepting the credentials without
+     * opening a session gets them with every request from now on.
+     */
+    private void loggedIn(ReentrantLock loggingIn, int status) {
+        if (loggingIn == null) {
+            return;
+        }
+        if (isSuccess(status) && !hasSession()) {
+            sessionless = true;
+        }
+        loggingIn.unlock();
+    }
+
+    private boolean hasSession() {
+        Date now = new Date();
+        for (Cookie cookie : cookies.getCookies()) {
+            if (!cookie.isExpired(now) && isSessionCookie(cookie.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSessionCookie(String name) {
+        String lowerCase = name.toLowerCase(Locale.ROOT);
+        return lowerCase.contains("session") || lowerCase.startsWith("seraph.");
+    }
+
+    /**
+     * Drops the session cookies, unless another request already replaced the
+     * ones {@code sent} with a new session.
+     */
+    private synchronized void expireSession(List<Cookie> sent) {
+        if (cookies.getCookies().equals(sent)) {
+            cookies.clear();
+            sessionRefreshes.incrementAndGet();
+        }
+    }
+
+    private HttpClientContext newContext(boolean sendCredentials) {
+        HttpClientContext context = HttpClientContext.create();
+        context.setCookieStore(cookies);
+        if (sendCredentials) {
+            context.setAuthCache(authCache);
+            logins.incrementAndGet();
+        }
+        return context;
+    }
+
+    private static boolean isSuccess(int status) {
+        return status >= 200 && status < 300;
+    }
+
+    private static RestException createRestException(HttpResponse response) {
+        int status = response.getStatusLine().getStatusCode();
+        String reason = response.getStatusLine().getReasonPhrase();
+        String body = null;
+        try {
+            if (response.getEntity() != null) {
+                body = EntityUtils.toString(response.getEntity(), "UTF-8");
+            }
+        } catch (IOException e) {
+            // the body is only informative
+        }
+        String message = "Status: " + status + ". Reason: " + reason + ". Has body: " + (body != null);
+        if (status == 401 || status == 403) {
+            return new SecurityException(status, reason, message, null);
+        }
+        return new RestException(status, reason, body, message, null);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import com.github.lucapino.confluence.rest.core.api.misc.RestException;
+
+/**
+ * Helpers to inspect the errors returned by the REST client, which wraps the
+ * HTTP failures in {@code ExecutionException}s and {@code RequestException}s.
+ */
+public final class RestErrors {
+
+    public static final int NOT_FOUND = 404;
+    public static final int CONFLICT = 409;
+
+    private RestErrors() {
+    }
+
+    /**
+     * @param e an exception thrown by a REST call.
+     *
+     * @return the HTTP status code of the failure, or <code>-1</code> if
+     * {@code e} is not caused by an HTTP error response.
+     */
+    public static int statusOf(Throwable e) {
+        Throwable cause = e;
+        while (cause != null) {
+            if (cause instanceof RestException) {
+                return ((RestException) cause).getStatusCode();
+            }
+            cause = cause.getCause();
+        }
+        return -1;
+    }
+
+    /**
+     * @param e an exception thrown by a REST call.
+     *
+     * @return <code>true</code> if the server answered 404 Not Found.
+     */
+    public static boolean isNotFound(Throwable e) {
+        return statusOf(e) == NOT_FOUND;
+    }
+
+    /**
+     * @param e an exception thrown by a REST call.
+     *
+     * @return <code>true</code> if the server answered 409 Conflict, i.e. the
+     * version sent is not the next one.
+     */
+    public static boolean isConflict(Throwable e) {
+        return statusOf(e) == CONFLICT;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * A chunked JSON request body where one string value is produced while the
+ * request is being sent, so a large page content never has to be held in
+ * memory.
+ * <p>
+ * The payload is serialized with the value to stream set to
+ * {@link #PLACEHOLDER}; when the entity is written the placeholder is replaced
+ * by the escaped output of the {@link BodyWriter}. The entity is repeatable:
+ * the writer is called again when the request is retried (i.e. after a 429
+ * or an expired session), so it must produce the same value each time.
+ */
+public class StreamingJsonEntity extends AbstractHttpEntity {
+
+    /**
+     * Marker of the streamed value in the serialized payload.
+     */
+    public static final String PLACEHOLDER = "streamed-" + UUID.randomUUID();
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final String prefix;
+    private final String suffix;
+    private final BodyWriter body;
+
+    /**
+     * Constructor.
+     *
+     * @param json the serialized payload, containing {@link #PLACEHOLDER} as a
+     * string value.
+     * @param body the producer of the streamed value.
+     */
+    public StreamingJsonEntity(String json, BodyWriter body) {
+        String quoted = "\"" + PLACEHOLDER + "\"";
+        int index = json.indexOf(quoted);
+        if (index < 0) {
+            throw new IllegalArgumentException("The payload does not contain the streamed value placeholder");
+        }
+        this.prefix = json.substring(0, index + 1);
+        this.suffix = json.substring(index + quoted.length() - 1);
+        this.body = body;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+        setChunked(true);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getContent() {
+        throw new UnsupportedOperationException("Streaming entity, use writeTo()");
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(outstream, StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write(prefix);
+        try {
+            body.writeTo(new JsonStringWriter(writer));
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Unable to produce the request body: " + e.getMessage(), e);
+        }
+        writer.write(suffix);
+        writer.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Produces the streamed value.
+     */
+    @FunctionalInterface
+    public interface BodyWriter {
+
+        /**
+         * Writes the value, once per attempt to send the request.
+         *
+         * @param out the writer receiving the raw (unescaped) value.
+         *
+         * @throws Exception if the value cannot be produced.
+         */
+        void writeTo(Writer out) throws Exception;
+    }
+}
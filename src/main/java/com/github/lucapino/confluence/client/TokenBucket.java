@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of the requests to a server: permits are refilled at a
+ * constant rate up to a maximum burst, and the server can ask to pause all
+ * the requests for a while.
+ */
+public class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double burst;
+    private double permits;
+    private long refilledAt;
+    private long pausedUntil;
+
+    /**
+     * Constructor.
+     *
+     * @param permitsPerSecond the sustained rate, 0 or less for no limit.
+     * @param burst the number of permits that can be taken at once after an
+     * idle period.
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.permits = this.burst;
+        this.refilledAt = System.nanoTime();
+        this.pausedUntil = refilledAt;
+    }
+
+    /**
+     * Takes a permit, waiting for it to be available and for any pause to
+     * end.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (now - pausedUntil < 0) {
+                    wait = pausedUntil - now;
+                } else if (permitsPerNano <= 0) {
+                    return;
+                } else {
+                    permits = Math.min(burst, permits + (now - refilledAt) * permitsPerNano);
+                    refilledAt = now;
+                    if (permits >= 1) {
+                        permits -= 1;
+                        return;
+                    }
+                    wait = (long) Math.ceil((1 - permits) / permitsPerNano);
+                }
+            }
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Holds every request for at least {@code millis}.
+     *
+     * @param millis the pause in milliseconds.
+     */
+    public synchronized void pause(long millis) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        if (until - pausedUntil > 0) {
+            pausedUntil = until;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import com.github.lucapino.confluence.helpers.ConversionCache;
+import com.github.lucapino.confluence.helpers.WikiMarkupConverter;
+import com.github.lucapino.confluence.model.Storage;
+import com.github.lucapino.confluence.rest.core.api.domain.content.StorageBean;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts wiki markup to storage format. Markup supported by
+ * {@link WikiMarkupConverter} is converted locally, the rest through the
+ * server, going through a {@link ConversionCache} and limiting the number of
+ * conversions in flight.
+ */
+public class WikiConverter {
+
+    private final ConfluenceClient client;
+    private final String url;
+    private final ConversionCache cache;
+    private final Semaphore inFlight;
+    private final boolean local;
+    private final AtomicInteger localConversions = new AtomicInteger();
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicInteger conversions = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param client the Confluence client.
+     * @param url the Confluence base URL, part of the cache key.
+     * @param cache the conversion cache.
+     * @param maxInFlight the maximum number of concurrent conversion calls.
+     * @param local whether to try the local conversion first.
+     */
+    public WikiConverter(ConfluenceClient client, String url, ConversionCache cache, int maxInFlight, boolean local) {
+        this.client = client;
+        this.url = url;
+        this.cache = cache;
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight));
+        this.local = local;
+    }
+
+    /**
+     * Converts a wiki source.
+     *
+     * @param wiki the wiki source.
+     *
+     * @return the future storage content.
+     */
+    public CompletableFuture<StorageBean> convert(String wiki) {
+        if (local) {
+            String converted = WikiMarkupConverter.toStorage(wiki);
+            if (converted != null) {
+                localConversions.incrementAndGet();
+                return CompletableFuture.completedFuture(storage(converted));
+            }
+        }
+        String key = ConversionCache.key(url, wiki);
+        return client.async(() -> {
+            String cached = cache.get(key);
+            if (cached != null) {
+                cacheHits.incrementAndGet();
+                return storage(cached);
+            }
+            StorageBean contentStorage = new StorageBean();
+            contentStorage.setValue(wiki);
+            contentStorage.setRepresentation(Storage.Representation.WIKI.toString());
+            inFlight.acquire();
+            try {
+                StorageBean converted = client.getClientFactory().getContentClient().convertContent(contentStorage).get();
+                conversions.incrementAndGet();
+                cache.put(key, converted.getValue());
+                return converted;
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Tells whether converting a wiki source needs a call to the server,
+     * without making it.
+     *
+     * @param wiki the wiki source.
+     *
+     * @return <code>true</code> if the source can neither be converted
+     * locally nor be found in the cache.
+     *
+     * @throws IOException if the cache cannot be read.
+     */
+    public boolean needsServer(String wiki) throws IOException {
+        if (local && WikiMarkupConverter.toStorage(wiki) != null) {
+            return false;
+        }
+        return cache.get(ConversionCache.key(url, wiki)) == null;
+    }
+
+    /**
+     * Converts many wiki sources concurrently. Identical sources are
+     * converted once.
+     *
+     * @param sources the wiki sources.
+     *
+     * @return the storage content of each source.
+     *
+     * @throws ExecutionException if a conversion fails.
+     * @throws InterruptedException if interrupted while waiting for the
+     * conversions.
+     */
+    public Map<String, StorageBean> convertAll(Collection<String> sources) throws ExecutionException, InterruptedException {
+        Map<String, CompletableFuture<StorageBean>> futures = new LinkedHashMap<>();
+        for (String source : sources) {
+            if (!futures.containsKey(source)) {
+                futures.put(source, convert(source));
+            }
+        }
+        Map<String, StorageBean> results = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<StorageBean>> future : futures.entrySet()) {
+            results.put(future.getKey(), future.getValue().get());
+        }
+        return results;
+    }
+
+    /**
+     * @return a summary of the conversions done and avoided.
+     */
+    public String getSummary() {
+        return String.format("Converted %d wiki page(s) locally, %d on the server, %d served from cache",
+                localConversions.get(), conversions.get(), cacheHits.get());
+    }
+
+    private static StorageBean storage(String value) {
+        StorageBean storage = new StorageBean();
+        storage.setRepresentation(Storage.Representation.STORAGE.toString());
+        storage.setValue(value);
+        return storage;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Build-session wide list of the changes a dry run would have made to the
+ * server, with the requests and bytes each of them needs.
+ */
+public final class ChangePlan {
+
+    private static final List<Change> CHANGES = new ArrayList<>();
+
+    private ChangePlan() {
+    }
+
+    /**
+     * Records a planned change.
+     *
+     * @param action the change, i.e. <code>create-page</code>.
+     * @param target what is changed, i.e. the space and title of a page.
+     * @param requests the number of requests the change needs, 0 if nothing
+     * has to be done.
+     * @param bytes the estimated bytes to send.
+     */
+    public static synchronized void add(String action, String target, int requests, long bytes) {
+        CHANGES.add(new Change(action, target, requests, bytes));
+    }
+
+    /**
+     * Forgets all the planned changes.
+     */
+    public static synchronized void reset() {
+        CHANGES.clear();
+    }
+
+    /**
+     * @return <code>true</code> if nothing was planned.
+     */
+    public static synchronized boolean isEmpty() {
+        return CHANGES.isEmpty();
+    }
+
+    /**
+     * @return the lines of a table with the totals of each action.
+     */
+    public static synchronized List<String> getSummary() {
+        List<String> lines = new ArrayList<>();
+        String format = "%-18s %8s %10s %14s";
+        lines.add(String.format(format, "action", "count", "requests", "bytes"));
+        Total total = new Total();
+        for (Map.Entry<String, Total> entry : totals().entrySet()) {
+            Total action = entry.getValue();
+            lines.add(String.format(format, entry.getKey(), action.count, action.requests, action.bytes));
+            total.add(action.count, action.requests, action.bytes);
+        }
+        lines.add(String.format(format, "total", total.count, total.requests, total.bytes));
+        return lines;
+    }
+
+    /**
+     * Writes the plan as a JSON object with the list of the changes and their
+     * totals by action.
+     *
+     * @param file the plan file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public static synchronized void writeJson(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        try (Writer out = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+            out.write("{\n  \"changes\": [");
+            String separator = "\n";
+            for (Change change : CHANGES) {
+                out.write(separator + "    {\"action\": " + quote(change.action) + ", \"target\": " + quote(change.target)
+                        + ", \"requests\": " + change.requests + ", \"bytes\": " + change.bytes + "}");
+                separator = ",\n";
+            }
+            out.write("\n  ],\n  \"totals\": {");
+            separator = "\n";
+            Total total = new Total();
+            for (Map.Entry<String, Total> entry : totals().entrySet()) {
+                Total action = entry.getValue();
+                out.write(separator + "    " + quote(entry.getKey()) + ": {\"count\": " + action.count
+                        + ", \"requests\": " + action.requests + ", \"bytes\": " + action.bytes + "}");
+                separator = ",\n";
+                total.add(action.count, action.requests, action.bytes);
+            }
+            out.write("\n  },\n  \"requests\": " + total.requests + ",\n  \"bytes\": " + total.bytes + "\n}\n");
+        }
+    }
+
+    private static Map<String, Total> totals() {
+        Map<String, Total> totals = new TreeMap<>();
+        for (Change change : CHANGES) {
+            totals.computeIfAbsent(change.action, action -> new Total()).add(1, change.requests, change.bytes);
+        }
+        return totals;
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static final class Change {
+
+        private final String action;
+        private final String target;
+        private final int requests;
+        private final long bytes;
+
+        Change(String action, String target, int requests, long bytes) {
+            this.action = action;
+            this.target = target;
+            this.requests = requests;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Total {
+
+        private int count;
+        private long requests;
+        private long bytes;
+
+        void add(int count, long requests, long bytes) {
+            this.count += count;
+            this.requests += requests;
+            this.bytes += bytes;
+        }
+    }
+}
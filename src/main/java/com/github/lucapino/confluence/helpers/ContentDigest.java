@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * Computes digests of page bodies, ignoring the formatting differences
+ * Confluence introduces when it stores a page.
+ */
+public final class ContentDigest {
+
+    private static final Pattern LINE_ENDINGS = Pattern.compile("\r\n?");
+    private static final Pattern TRAILING_SPACES = Pattern.compile("[ \t]+\n");
+    private static final Pattern SPACES_IN_EMPTY_TAGS = Pattern.compile("(<[A-Za-z][^<>]*?)\\s+/>");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentDigest() {
+    }
+
+    /**
+     * Normalizes a storage body: line endings, trailing spaces and blanks
+     * before the end of empty tags are not significant. Blanks between tags
+     * are kept, they may be content (i.e. between inline elements or in a
+     * code block).
+     *
+     * @param content the content to normalize, may be {@code null}.
+     *
+     * @return the normalized content.
+     */
+    public static String normalize(String content) {
+        if (content == null) {
+            return "";
+        }
+        String result = LINE_ENDINGS.matcher(content).replaceAll("\n");
+        result = TRAILING_SPACES.matcher(result).replaceAll("\n");
+        result = SPACES_IN_EMPTY_TAGS.matcher(result).replaceAll("$1/>");
+        return result.trim();
+    }
+
+    /**
+     * @param content the content to digest, may be {@code null}.
+     *
+     * @return the hex SHA-256 of the normalized {@code content}.
+     */
+    public static String of(String content) {
+        return sha256(normalize(content).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param data the bytes to digest.
+     *
+     * @return the hex SHA-256 of {@code data}.
+     */
+    public static String sha256(byte[] data) {
+        return toHex(newSha256().digest(data));
+    }
+
+    /**
+     * Digests a file reading it through a channel, without loading it on the
+     * heap.
+     *
+     * @param file the file to digest.
+     *
+     * @return the hex SHA-256 of the content of {@code file}.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest = newSha256();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @return a new SHA-256 {@code MessageDigest}.
+     */
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param digest the digest bytes.
+     *
+     * @return {@code digest} as lowercase hex.
+     */
+    public static String toHex(byte[] digest) {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
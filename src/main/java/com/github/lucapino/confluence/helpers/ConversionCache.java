@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memoizes the conversions of wiki markup to storage format.
+ * <p>
+ * Results are kept in memory and, when a directory is given, in one file per
+ * conversion named after the SHA-256 of the server URL and of the wiki
+ * source, so unchanged pages are never converted twice, even across builds.
+ */
+public class ConversionCache {
+
+    private static final Map<File, ConversionCache> INSTANCES = new HashMap<>();
+
+    private final File directory;
+    private final Map<String, String> conversions = new ConcurrentHashMap<>();
+
+    private ConversionCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cache persisted in {@code directory}.
+     *
+     * @param directory the cache directory, {@code null} to keep the
+     * conversions in memory only.
+     *
+     * @return the shared cache instance.
+     */
+    public static ConversionCache forDirectory(File directory) {
+        synchronized (INSTANCES) {
+            File key = directory != null ? directory.getAbsoluteFile() : null;
+            return INSTANCES.computeIfAbsent(key, ConversionCache::new);
+        }
+    }
+
+    /**
+     * @param url the Confluence base URL.
+     * @param wiki the wiki source.
+     *
+     * @return the key of the conversion.
+     */
+    public static String key(String url, String wiki) {
+        return ContentDigest.sha256((url + "\n" + wiki).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param key the key of the conversion.
+     *
+     * @return the converted storage content, or {@code null} if unknown.
+     *
+     * @throws IOException if the cache file cannot be read.
+     */
+    public String get(String key) throws IOException {
+        String storage = conversions.get(key);
+        if (storage == null && directory != null) {
+            File file = new File(directory, key + ".xml");
+            if (file.isFile()) {
+                storage = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                conversions.put(key, storage);
+            }
+        }
+        return storage;
+    }
+
+    /**
+     * Stores a conversion.
+     *
+     * @param key the key of the conversion.
+     * @param storage the converted storage content.
+     *
+     * @throws IOException if the cache file cannot be written.
+     */
+    public void put(String key, String storage) throws IOException {
+        conversions.put(key, storage);
+        if (directory != null) {
+            if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("Unable to create directory " + directory);
+            }
+            // write then rename, so that a concurrent build never reads a partial file
+            File tmp = File.createTempFile(key, ".tmp", directory);
+            Files.write(tmp.toPath(), storage.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), new File(directory, key + ".xml").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Remembers, per published page or attachment, the digest of the last content
+ * published by the plugin together with the page version it produced and,
+ * for incremental builds, the digest of the inputs it was produced from and
+ * the id of the remote content.
+ * <p>
+ * A page whose server version still matches the stored one has not been
+ * edited since, so a rendered content with the same digest does not need to
+ * be published again. Like an incremental compilation, a later build whose
+ * inputs have the same digest can skip the entry without rendering it or
+ * calling the server; changes made on the server in the meantime are not
+ * detected.
+ */
+public class DigestStore {
+
+    private static final String NONE = "-";
+
+    private final PropertiesFile digests;
+
+    /**
+     * Constructor, loads the store if {@code file} exists.
+     *
+     * @param file the backing file.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    public DigestStore(File file) throws IOException {
+        this.digests = new PropertiesFile(file, "Digests of the content published on Confluence");
+    }
+
+    /**
+     * @param key the page key.
+     * @param digest the digest of the rendered content.
+     * @param version the current version of the page on the server.
+     *
+     * @return <code>true</code> if {@code digest} was published as
+     * {@code version} of the page.
+     */
+    public boolean matches(String key, String digest, Integer version) {
+        Entry entry = get(key);
+        return entry != null && digest != null && digest.equals(entry.getDigest()) && version != null
+                && version.equals(entry.getVersion());
+    }
+
+    /**
+     * @param key the entry key.
+     * @param inputs the digest of the current inputs, may be {@code null}
+     * if they cannot be tracked.
+     *
+     * @return <code>true</code> if the entry was published from the same
+     * inputs.
+     */
+    public boolean isUpToDate(String key, String inputs) {
+        Entry entry = get(key);
+        return inputs != null && entry != null && inputs.equals(entry.getInputs());
+    }
+
+    /**
+     * @param key the entry key.
+     *
+     * @return the entry, or {@code null} if nothing was published under
+     * {@code key}.
+     */
+    public Entry get(String key) {
+        String value = digests.get(key);
+        if (value == null) {
+            return null;
+        }
+        String[] fields = value.split("\\|", -1);
+        if (fields.length != 4) {
+            return null;
+        }
+        try {
+            return new Entry(value(fields[0]), NONE.equals(fields[1]) ? null : Integer.valueOf(fields[1]),
+                    value(fields[2]), value(fields[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records the digest of a published content, forgetting its inputs.
+     *
+     * @param key the page key.
+     * @param digest the digest of the published content.
+     * @param version the version of the page created by the publication.
+     */
+    public void put(String key, String digest, Integer version) {
+        put(key, digest, version, null, null);
+    }
+
+    /**
+     * Records a published entry.
+     *
+     * @param key the entry key.
+     * @param digest the digest of the published content, may be
+     * {@code null}.
+     * @param version the version of the remote content, may be {@code null}.
+     * @param inputs the digest of the inputs, may be {@code null}.
+     * @param id the id of the remote content, may be {@code null}.
+     */
+    public void put(String key, String digest, Integer version, String inputs, String id) {
+        digests.set(key, field(digest) + "|" + field(version) + "|" + field(inputs) + "|" + field(id));
+    }
+
+    /**
+     * Writes the store back to disk.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public void save() throws IOException {
+        digests.save();
+    }
+
+    /**
+     * @param url the Confluence base URL.
+     * @param space the space key.
+     * @param title the page title.
+     *
+     * @return the key identifying a page.
+     */
+    public static String key(String url, String space, String title) {
+        return url + "|" + space + "|" + title;
+    }
+
+    private static String field(Object value) {
+        return value != null ? value.toString() : NONE;
+    }
+
+    private static String value(String field) {
+        return NONE.equals(field) ? null : field;
+    }
+
+    /**
+     * A published page or attachment.
+     */
+    public static final class Entry {
+
+        private final String digest;
+        private final Integer version;
+        private final String inputs;
+        private final String id;
+
+        Entry(String digest, Integer version, String inputs, String id) {
+            this.digest = digest;
+            this.version = version;
+            this.inputs = inputs;
+            this.id = id;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public Integer getVersion() {
+            return version;
+        }
+
+        public String getInputs() {
+            return inputs;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    /**
+     * Digests the inputs of an entry, in the order they are added.
+     */
+    public static final class Inputs {
+
+        private final MessageDigest digest = ContentDigest.newSha256();
+
+        /**
+         * Adds a named value.
+         *
+         * @param name the input name.
+         * @param value the input value, may be {@code null}.
+         *
+         * @return {@code this}.
+         */
+        public Inputs add(String name, Object value) {
+            digest.update((name + "=" + value + "\n").getBytes(StandardCharsets.UTF_8));
+            return this;
+        }
+
+        /**
+         * Adds the entries of a map, sorted by key.
+         *
+         * @param name the input name.
+         * @param values the map, may be {@code null}.
+         *
+         * @return {@code this}.
+         */
+        public Inputs addAll(String name, Map<?, ?> values) {
+            if (values != null) {
+                Map<String, Object> sorted = new TreeMap<>();
+                for (Map.Entry<?, ?> value : values.entrySet()) {
+                    sorted.put(String.valueOf(value.getKey()), value.getValue());
+                }
+                for (Map.Entry<String, Object> value : sorted.entrySet()) {
+                    add(name + "." + value.getKey(), value.getValue());
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Adds the size and modification time of a file, which stand for its
+         * content.
+         *
+         * @param name the input name.
+         * @param file the file.
+         *
+         * @return {@code this}.
+         */
+        public Inputs addStamp(String name, File file) {
+            return add(name, file.getAbsolutePath() + "@" + file.length() + "@" + file.lastModified());
+        }
+
+        /**
+         * @return the hex SHA-256 of the inputs added so far.
+         */
+        public String digest() {
+            return ContentDigest.toHex(digest.digest());
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cache resolving a page (server, space and title) to its content
+ * id, so that repeated builds can skip the lookups by title.
+ * <p>
+ * Entries expire after a configurable time to live and must be invalidated
+ * when an id based call answers 404 (the page was deleted or recreated).
+ * Instances are shared per file, so concurrent executions in the same build
+ * see each other's entries. Changes are written by {@link #save()}, once per
+ * execution.
+ */
+public class PageIdCache {
+
+    private static final Map<File, PageIdCache> INSTANCES = new HashMap<>();
+
+    private final long ttlMillis;
+    private final PropertiesFile entries;
+
+    private PageIdCache(File file, long ttlMillis) throws IOException {
+        this.ttlMillis = ttlMillis;
+        this.entries = new PropertiesFile(file, "Confluence page ids");
+    }
+
+    /**
+     * Returns the cache backed by {@code file}.
+     *
+     * @param file the backing file.
+     * @param ttlSeconds the time to live of the entries.
+     *
+     * @return the shared cache instance.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    public static PageIdCache forFile(File file, long ttlSeconds) throws IOException {
+        synchronized (INSTANCES) {
+            File key = file.getAbsoluteFile();
+            PageIdCache cache = INSTANCES.get(key);
+            if (cache == null || cache.ttlMillis != ttlSeconds * 1000) {
+                cache = new PageIdCache(key, ttlSeconds * 1000);
+                INSTANCES.put(key, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * @param url the Confluence base URL.
+     * @param space the space key.
+     * @param title the page title.
+     *
+     * @return the cached entry, or {@code null} if missing or expired.
+     */
+    public Entry get(String url, String space, String title) {
+        String value = entries.get(key(url, space, title));
+        if (value == null) {
+            return null;
+        }
+        Entry entry = Entry.parse(value);
+        if (entry == null || System.currentTimeMillis() - entry.timestamp > ttlMillis) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Stores the id of a page.
+     *
+     * @param url the Confluence base URL.
+     * @param space the space key.
+     * @param title the page title.
+     * @param id the content id.
+     * @param version the current version of the page, may be {@code null}.
+     */
+    public void put(String url, String space, String title, String id, Integer version) {
+        entries.set(key(url, space, title), id + "|" + (version != null ? version : "") + "|" + System.currentTimeMillis());
+    }
+
+    /**
+     * Removes the entry of a page.
+     *
+     * @param url the Confluence base URL.
+     * @param space the space key.
+     * @param title the page title.
+     */
+    public void invalidate(String url, String space, String title) {
+        entries.remove(key(url, space, title));
+    }
+
+    /**
+     * Writes the changes made since the last save.
+     *
+     * @throws IOException if the cache cannot be saved.
+     */
+    public void save() throws IOException {
+        entries.save();
+    }
+
+    /**
+     * Writes the changes of every cache in use.
+     *
+     * @throws IOException if a cache cannot be saved; the other ones are
+     * saved anyway.
+     */
+    public static void saveAll() throws IOException {
+        List<PageIdCache> caches;
+        synchronized (INSTANCES) {
+            caches = new ArrayList<>(INSTANCES.values());
+        }
+        IOException failure = null;
+        for (PageIdCache cache : caches) {
+            try {
+                cache.save();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static String key(String url, String space, String title) {
+        return url + "|" + space + "|" + title;
+    }
+
+    /**
+     * A cached page id.
+     */
+    public static class Entry {
+
+        private final String id;
+        private final Integer version;
+        private final long timestamp;
+
+        Entry(String id, Integer version, long timestamp) {
+            this.id = id;
+            this.version = version;
+            this.timestamp = timestamp;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Integer getVersion() {
+            return version;
+        }
+
+        static Entry parse(String value) {
+            String[] parts = value.split("\\|", -1);
+            if (parts.length != 3) {
+                return null;
+            }
+            try {
+                Integer version = parts[1].isEmpty() ? null : Integer.valueOf(parts[1]);
+                return new Entry(parts[0], version, Long.parseLong(parts[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
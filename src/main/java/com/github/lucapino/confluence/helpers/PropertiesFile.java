@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Predicate;
+
+/**
+ * A properties file backing one of the stores of the plugin, possibly shared
+ * by concurrent builds.
+ * <p>
+ * Changes are kept in memory until {@link #save()}. Saving merges them into
+ * the current content of the file, so that the entries written by another
+ * build in the meantime are kept, and replaces the file with a rename, so that
+ * a concurrent reader never sees a partial file.
+ */
+public final class PropertiesFile {
+
+    private final File file;
+    private final String comment;
+    private final Properties properties = new Properties();
+    /**
+     * Changes not saved yet, {@code null} for a removed key.
+     */
+    private final Map<String, String> changes = new HashMap<>();
+
+    /**
+     * Constructor, loads the properties if {@code file} exists.
+     *
+     * @param file the backing file.
+     * @param comment the comment written at the top of the file.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    public PropertiesFile(File file, String comment) throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.comment = comment;
+        load(properties);
+    }
+
+    /**
+     * @param key the key.
+     *
+     * @return the value of {@code key}, or {@code null} if missing.
+     */
+    public synchronized String get(String key) {
+        return properties.getProperty(key);
+    }
+
+    /**
+     * @param key the key.
+     * @param value the new value of {@code key}.
+     */
+    public synchronized void set(String key, String value) {
+        if (!value.equals(properties.setProperty(key, value))) {
+            changes.put(key, value);
+        }
+    }
+
+    /**
+     * @param key the key.
+     *
+     * @return <code>true</code> if {@code key} was present.
+     */
+    public synchronized boolean remove(String key) {
+        if (properties.remove(key) == null) {
+            return false;
+        }
+        changes.put(key, null);
+        return true;
+    }
+
+    /**
+     * @param filter the keys to remove.
+     *
+     * @return <code>true</code> if any key was removed.
+     */
+    public synchronized boolean removeIf(Predicate<String> filter) {
+        boolean removed = false;
+        for (String key : properties.stringPropertyNames()) {
+            if (filter.test(key)) {
+                removed |= remove(key);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Merges the changes into the file, if any.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public synchronized void save() throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Properties merged = new Properties();
+        load(merged);
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                merged.remove(change.getKey());
+            } else {
+                merged.setProperty(change.getKey(), change.getValue());
+            }
+        }
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                merged.store(out, comment);
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+        properties.clear();
+        properties.putAll(merged);
+        changes.clear();
+    }
+
+    private void load(Properties target) throws IOException {
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                target.load(in);
+            }
+        }
+    }
+}
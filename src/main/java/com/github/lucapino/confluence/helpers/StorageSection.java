@@ -0,0 +1,233 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+/**
+ * Locates a section of a page in storage format, delimited by anchor macros.
+ * <p>
+ * The section of an anchor starts after the top level block holding it (i.e.
+ * the paragraph around the macro) and ends before the next top level block
+ * holding an anchor, or at the end of the page. The body is scanned once,
+ * without building a tree or copying it, and the scan stops at the end of the
+ * section.
+ * <p>
+ * Storage format is not a well-formed XML document on its own (namespace
+ * prefixes are not declared, HTML entities are not defined), so the scanner
+ * only tracks tags, comments and CDATA sections.
+ */
+public final class StorageSection {
+
+    private static final String MACRO = "ac:structured-macro";
+    private static final String PARAMETER = "ac:parameter";
+
+    private final int start;
+    private final int end;
+
+    private StorageSection(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return the offset of the first character of the section.
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return the offset following the last character of the section.
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Finds the section of an anchor.
+     *
+     * @param storage the page body in storage format.
+     * @param name the anchor name.
+     *
+     * @return the section, or {@code null} if the page has no such anchor.
+     */
+    public static StorageSection find(String storage, String name) {
+        int length = storage.length();
+        int depth = 0;
+        int blockStart = 0;
+        boolean blockHasAnchor = false;
+        boolean blockHasTarget = false;
+        int sectionStart = -1;
+        // depth of the anchor macro being read, -1 outside of it
+        int macroDepth = -1;
+        StringBuilder anchor = null;
+        boolean inName = false;
+
+        int i = 0;
+        while (i < length) {
+            char c = storage.charAt(i);
+            if (c != '<') {
+                if (inName) {
+                    anchor.append(c);
+                }
+                i++;
+                continue;
+            }
+            if (storage.startsWith("<!--", i)) {
+                i = skipPast(storage, "-->", i + 4);
+                continue;
+            }
+            if (storage.startsWith("<![CDATA[", i)) {
+                int close = storage.indexOf("]]>", i + 9);
+                if (close < 0) {
+                    break;
+                }
+                if (inName) {
+                    // the name is compared unescaped
+                    anchor.append(escape(storage.substring(i + 9, close)));
+                }
+                i = close + 3;
+                continue;
+            }
+            int close = tagEnd(storage, i);
+            if (close < 0) {
+                break;
+            }
+            if (storage.startsWith("<!", i) || storage.startsWith("<?", i)) {
+                i = close + 1;
+                continue;
+            }
+            boolean endTag = storage.charAt(i + 1) == '/';
+            boolean empty = storage.charAt(close - 1) == '/';
+            if (endTag) {
+                depth--;
+                if (inName && storage.startsWith(PARAMETER, i + 2)) {
+                    inName = false;
+                }
+                if (macroDepth >= 0 && depth == macroDepth && storage.startsWith(MACRO, i + 2)) {
+                    blockHasAnchor = true;
+                    blockHasTarget |= unescape(anchor.toString().trim()).equals(name);
+                    macroDepth = -1;
+                }
+            } else {
+                if (depth == 0) {
+                    blockStart = i;
+                    blockHasAnchor = false;
+                    blockHasTarget = false;
+                }
+                if (macroDepth < 0 && isTag(storage, i + 1, MACRO) && attribute(storage, i, close, "ac:name", "anchor")) {
+                    if (!empty) {
+                        macroDepth = depth;
+                        anchor = new StringBuilder();
+                    }
+                } else if (macroDepth >= 0 && depth == macroDepth + 1 && isTag(storage, i + 1, PARAMETER)
+                        && attribute(storage, i, close, "ac:name", "")) {
+                    inName = !empty;
+                }
+                if (!empty) {
+                    depth++;
+                }
+            }
+            i = close + 1;
+            if (depth == 0) {
+                // end of a top level block
+                if (sectionStart < 0) {
+                    if (blockHasTarget) {
+                        sectionStart = i;
+                    }
+                } else if (blockHasAnchor) {
+                    return new StorageSection(sectionStart, blockStart);
+                }
+            }
+        }
+        return sectionStart < 0 ? null : new StorageSection(sectionStart, length);
+    }
+
+    /**
+     * @param name the anchor name.
+     *
+     * @return a paragraph holding an anchor macro, to start a new section.
+     */
+    public static String anchor(String name) {
+        return "<p><" + MACRO + " ac:name=\"anchor\"><" + PARAMETER + " ac:name=\"\">" + escape(name)
+                + "</" + PARAMETER + "></" + MACRO + "></p>";
+    }
+
+    private static int skipPast(String storage, String marker, int from) {
+        int index = storage.indexOf(marker, from);
+        return index < 0 ? storage.length() : index + marker.length();
+    }
+
+    /**
+     * @return the offset of the <code>&gt;</code> closing the tag opened at
+     * {@code from}, ignoring the ones in quoted attribute values.
+     */
+    private static int tagEnd(String storage, int from) {
+        char quote = 0;
+        for (int i = from + 1; i < storage.length(); i++) {
+            char c = storage.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isTag(String storage, int from, String name) {
+        if (!storage.startsWith(name, from)) {
+            return false;
+        }
+        char next = storage.charAt(from + name.length());
+        return next == '>' || next == '/' || Character.isWhitespace(next);
+    }
+
+    /**
+     * @return <code>true</code> if the tag between {@code from} and
+     * {@code to} has the attribute {@code name} with {@code value}, or lacks
+     * it when {@code value} is empty.
+     */
+    private static boolean attribute(String storage, int from, int to, String name, String value) {
+        String tag = storage.substring(from, to);
+        int index = tag.indexOf(" " + name + "=");
+        if (index < 0) {
+            return value.isEmpty();
+        }
+        int quote = index + name.length() + 2;
+        if (quote >= tag.length()) {
+            return false;
+        }
+        char delimiter = tag.charAt(quote);
+        int close = tag.indexOf(delimiter, quote + 1);
+        return close > 0 && tag.substring(quote + 1, close).equals(value);
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String unescape(String text) {
+        if (text.indexOf('&') < 0) {
+            return text;
+        }
+        return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'")
+                .replace("&#39;", "'").replace("&amp;", "&");
+    }
+}
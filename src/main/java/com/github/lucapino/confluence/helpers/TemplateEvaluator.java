@@ -16,53 +16,288 @@
  */
 package com.github.lucapino.confluence.helpers;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.maven.project.MavenProject;
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.exception.ParseErrorException;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.parser.ParseException;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+import org.codehaus.plexus.util.IOUtil;
 
+/**
+ * Renders the Velocity templates of the plugin.
+ * <p>
+ * The project and its properties form a base context that is never modified
+ * after construction; every evaluation gets its own child context holding the
+ * given properties and the variables set by the template, so an evaluator can
+ * be used by several threads at once.
+ * <p>
+ * Templates read from files are parsed once and kept in a cache shared by
+ * all the evaluators of the build, keyed by path and invalidated when the
+ * digest of the file changes: the file is read at every evaluation, which
+ * costs far less than parsing it, as the modification time and size of a
+ * regenerated file may not change.
+ */
 public class TemplateEvaluator {
 
-    private final VelocityEngine engine = new VelocityEngine();
-    private final VelocityContext context = new VelocityContext();
+    private static final ConcurrentMap<String, CachedTemplate> TEMPLATES = new ConcurrentHashMap<>();
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private final VelocityContext base = new VelocityContext();
 
     public TemplateEvaluator(MavenProject project) {
         if (project != null) {
-            context.put("project", project);
+            base.put("project", project);
             for (Entry<Object, Object> p : project.getProperties().entrySet()) {
-                context.put(p.getKey().toString(), p.getValue());
+                base.put(p.getKey().toString(), p.getValue());
             }
         }
     }
 
     public String evaluate(File file, HashMap<Object, Object> properties) throws FileNotFoundException, UnsupportedEncodingException {
-        FileInputStream fis = new FileInputStream(file);
-        InputStreamReader reader = new InputStreamReader(fis, "UTF-8");
         StringWriter writer = new StringWriter();
-        if (properties != null) {
-            for (Entry<Object, Object> p : properties.entrySet()) {
-                context.put(p.getKey().toString(), p.getValue());
-            }
+        evaluate(file, properties, writer);
+        return writer.toString();
+    }
+
+    /**
+     * Renders a template file directly into a writer, without building the
+     * whole result in memory.
+     *
+     * @param file the template.
+     * @param properties additional context properties, may be {@code null}.
+     * @param writer the writer receiving the rendered content.
+     *
+     * @throws FileNotFoundException if the template does not exist.
+     * @throws UnsupportedEncodingException never, UTF-8 is always supported.
+     */
+    public void evaluate(File file, HashMap<Object, Object> properties, Writer writer) throws FileNotFoundException, UnsupportedEncodingException {
+        long start = System.nanoTime();
+        CountingWriter counter = new CountingWriter(writer);
+        try {
+            getTemplate(file).merge(newContext(properties), counter);
+        } finally {
+            Timings.record("template", start, counter.count);
         }
-        engine.evaluate(context, writer, "[Confluence]", reader);
+    }
+
+    private String render(File file, HashMap<Object, Object> properties) throws FileNotFoundException, UnsupportedEncodingException {
+        StringWriter writer = new StringWriter();
+        getTemplate(file).merge(newContext(properties), writer);
         return writer.toString();
     }
 
     public String evaluate(String text, HashMap<Object, Object> properties) {
+        long start = System.nanoTime();
         StringWriter writer = new StringWriter();
+        try {
+            VelocityRuntime.RUNTIME.evaluate(newContext(properties), writer, "[Confluence]", text);
+        } finally {
+            Timings.record("template", start, writer.getBuffer().length());
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Renders several template files concurrently. The batch is timed as a
+     * whole, as a <code>template-batch</code> operation.
+     *
+     * @param files the templates.
+     * @param properties additional context properties, shared by all the
+     * templates, may be {@code null}.
+     * @param executor the executor running the evaluations; the caller must
+     * not be one of its threads.
+     *
+     * @return the rendered content of each template, in the order of
+     * {@code files}.
+     *
+     * @throws FileNotFoundException if a template does not exist.
+     * @throws UnsupportedEncodingException never, UTF-8 is always supported.
+     * @throws InterruptedException if interrupted while waiting for the
+     * workers.
+     */
+    public Map<File, String> evaluateAll(Collection<File> files, HashMap<Object, Object> properties, ExecutorService executor)
+            throws FileNotFoundException, UnsupportedEncodingException, InterruptedException {
+        long start = System.nanoTime();
+        long count = 0;
+        Map<File, Future<String>> futures = new LinkedHashMap<>();
+        try {
+            for (File file : files) {
+                futures.put(file, executor.submit(() -> render(file, properties)));
+            }
+            Map<File, String> results = new LinkedHashMap<>();
+            for (Map.Entry<File, Future<String>> future : futures.entrySet()) {
+                try {
+                    String result = future.getValue().get();
+                    count += result.length();
+                    results.put(future.getKey(), result);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof FileNotFoundException) {
+                        throw (FileNotFoundException) cause;
+                    } else if (cause instanceof UnsupportedEncodingException) {
+                        throw (UnsupportedEncodingException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+            return results;
+        } finally {
+            for (Future<String> future : futures.values()) {
+                future.cancel(true);
+            }
+            Timings.record("template-batch", start, count);
+        }
+    }
+
+    /**
+     * @return the number of file evaluations served by the template cache.
+     */
+    public static long getCacheHits() {
+        return HITS.get();
+    }
+
+    /**
+     * @return the number of file evaluations that required parsing the
+     * template.
+     */
+    public static long getCacheMisses() {
+        return MISSES.get();
+    }
+
+    private VelocityContext newContext(HashMap<Object, Object> properties) {
+        VelocityContext context = new VelocityContext(new HashMap<>(), base);
         if (properties != null) {
             for (Entry<Object, Object> p : properties.entrySet()) {
                 context.put(p.getKey().toString(), p.getValue());
             }
         }
-        engine.evaluate(context, writer, "[Confluence]", text);
-        return writer.toString();
+        return context;
+    }
+
+    private static Template getTemplate(File file) throws FileNotFoundException, UnsupportedEncodingException {
+        String key = file.getAbsolutePath();
+        byte[] content = read(file);
+        String digest = ContentDigest.sha256(content);
+        CachedTemplate cached = TEMPLATES.get(key);
+        if (cached != null && cached.digest.equals(digest)) {
+            HITS.incrementAndGet();
+            return cached.template;
+        }
+        MISSES.incrementAndGet();
+        Template template = parse(file, content);
+        TEMPLATES.put(key, new CachedTemplate(digest, template));
+        return template;
+    }
+
+    private static byte[] read(File file) throws FileNotFoundException {
+        try (InputStream in = new FileInputStream(file)) {
+            return IOUtil.toByteArray(in);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new ParseErrorException("Unable to read template " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static Template parse(File file, byte[] content) throws UnsupportedEncodingException {
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(content), "UTF-8")) {
+            SimpleNode data = VelocityRuntime.RUNTIME.parse(reader, file.getName());
+            Template template = new Template();
+            template.setRuntimeServices(VelocityRuntime.RUNTIME);
+            template.setName(file.getName());
+            template.setData(data);
+            template.initDocument();
+            return template;
+        } catch (ParseException e) {
+            throw new ParseErrorException(e, file.getName());
+        } catch (UnsupportedEncodingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new ParseErrorException("Unable to read template " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Holds the Velocity runtime shared by all the evaluators, initialized
+     * once, on first use.
+     */
+    private static final class VelocityRuntime {
+
+        private static final RuntimeInstance RUNTIME = new RuntimeInstance();
+
+        static {
+            // templates included with #parse are cached by the file resource loader
+            RUNTIME.setProperty("file.resource.loader.cache", Boolean.TRUE);
+            RUNTIME.init();
+        }
+    }
+
+    private static class CachedTemplate {
+
+        private final String digest;
+        private final Template template;
+
+        CachedTemplate(String digest, Template template) {
+            this.digest = digest;
+            this.template = template;
+        }
+    }
+
+    /**
+     * Counts the characters rendered by a template.
+     */
+    private static final class CountingWriter extends FilterWriter {
+
+        private long count;
+
+        CountingWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            out.write(cbuf, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            count += len;
+        }
     }
 }
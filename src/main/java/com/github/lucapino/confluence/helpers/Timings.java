@@ -0,0 +1,203 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Build-session wide latency statistics of the REST calls and template
+ * evaluations, by operation.
+ */
+public final class Timings {
+
+    private static final Map<String, Operation> OPERATIONS = new ConcurrentSkipListMap<>();
+
+    private Timings() {
+    }
+
+    /**
+     * Records a timed operation.
+     *
+     * @param operation the operation name.
+     * @param startNanos the {@link System#nanoTime()} when the operation
+     * started.
+     * @param bytes the bytes transferred or produced, 0 if unknown.
+     */
+    public static void record(String operation, long startNanos, long bytes) {
+        OPERATIONS.computeIfAbsent(operation, name -> new Operation()).add(System.nanoTime() - startNanos, bytes);
+    }
+
+    /**
+     * Forgets all the recorded operations.
+     */
+    public static void reset() {
+        OPERATIONS.clear();
+    }
+
+    /**
+     * @return <code>true</code> if nothing was recorded.
+     */
+    public static boolean isEmpty() {
+        return OPERATIONS.isEmpty();
+    }
+
+    /**
+     * @return the lines of a table with the statistics of each operation.
+     */
+    public static List<String> getSummary() {
+        List<String> lines = new ArrayList<>();
+        String format = "%-18s %8s %12s %10s %10s %10s %10s";
+        lines.add(String.format(format, "operation", "count", "bytes", "p50 ms", "p95 ms", "p99 ms", "total ms"));
+        for (Map.Entry<String, Operation> entry : OPERATIONS.entrySet()) {
+            Stats stats = entry.getValue().stats();
+            lines.add(String.format(format, entry.getKey(), stats.count, stats.bytes, millis(stats.p50), millis(stats.p95),
+                    millis(stats.p99), millis(stats.total)));
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the statistics as a JSON object keyed by operation.
+     *
+     * @param file the report file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeJson(File file) throws IOException {
+        try (Writer out = open(file)) {
+            out.write("{");
+            String separator = "\n";
+            for (Map.Entry<String, Operation> entry : OPERATIONS.entrySet()) {
+                Stats stats = entry.getValue().stats();
+                out.write(separator + "  \"" + entry.getKey() + "\": {\"count\": " + stats.count + ", \"bytes\": " + stats.bytes
+                        + ", \"p50Ms\": " + millis(stats.p50) + ", \"p95Ms\": " + millis(stats.p95)
+                        + ", \"p99Ms\": " + millis(stats.p99) + ", \"totalMs\": " + millis(stats.total) + "}");
+                separator = ",\n";
+            }
+            out.write("\n}\n");
+        }
+    }
+
+    /**
+     * Writes the statistics as CSV, one operation per line.
+     *
+     * @param file the report file.
+     *
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeCsv(File file) throws IOException {
+        try (Writer out = open(file)) {
+            out.write("operation,count,bytes,p50_ms,p95_ms,p99_ms,total_ms\n");
+            for (Map.Entry<String, Operation> entry : OPERATIONS.entrySet()) {
+                Stats stats = entry.getValue().stats();
+                out.write(entry.getKey() + "," + stats.count + "," + stats.bytes + "," + millis(stats.p50) + ","
+                        + millis(stats.p95) + "," + millis(stats.p99) + "," + millis(stats.total) + "\n");
+            }
+        }
+    }
+
+    private static Writer open(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        return new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private static final class Operation {
+
+        /**
+         * Maximum number of latencies kept, beyond that the percentiles are
+         * computed on a uniform sample.
+         */
+        private static final int MAX_SAMPLES = 100000;
+
+        private long[] latencies = new long[16];
+        private int samples;
+        private int count;
+        private long bytes;
+        private long total;
+
+        synchronized void add(long nanos, long bytes) {
+            count++;
+            this.bytes += bytes;
+            total += nanos;
+            if (samples < MAX_SAMPLES) {
+                if (samples == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, Math.min(samples * 2, MAX_SAMPLES));
+                }
+                latencies[samples++] = nanos;
+            } else {
+                // reservoir sampling
+                int slot = ThreadLocalRandom.current().nextInt(count);
+                if (slot < MAX_SAMPLES) {
+                    latencies[slot] = nanos;
+                }
+            }
+        }
+
+        synchronized Stats stats() {
+            long[] sorted = Arrays.copyOf(latencies, samples);
+            Arrays.sort(sorted);
+            return new Stats(count, bytes, percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99), total);
+        }
+
+        private static long percentile(long[] sorted, int percent) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            // nearest rank
+            int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+
+    private static final class Stats {
+
+        private final int count;
+        private final long bytes;
+        private final long p50;
+        private final long p95;
+        private final long p99;
+        private final long total;
+
+        Stats(int count, long bytes, long p50, long p95, long p99, long total) {
+            this.count = count;
+            this.bytes = bytes;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.total = total;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Remembers the attachments of a set already uploaded, so that a run
+ * resuming a failed upload skips them. An entry only matches while the file
+ * keeps the size and modification time it was uploaded with.
+ */
+public class UploadState {
+
+    private final PropertiesFile uploaded;
+
+    /**
+     * Constructor, loads the state if {@code file} exists.
+     *
+     * @param file the backing file.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    public UploadState(File file) throws IOException {
+        this.uploaded = new PropertiesFile(file, "Attachments uploaded by an incomplete run");
+    }
+
+    /**
+     * @param pageId the id of the page.
+     * @param attachment the attachment.
+     *
+     * @return <code>true</code> if this version of the file has already been
+     * uploaded to the page.
+     */
+    public boolean isUploaded(String pageId, File attachment) {
+        return stamp(attachment).equals(uploaded.get(key(pageId, attachment)));
+    }
+
+    /**
+     * Records an uploaded attachment and saves the state right away, so that
+     * a run failing later on resumes after it.
+     *
+     * @param pageId the id of the page.
+     * @param attachment the attachment.
+     *
+     * @throws IOException if the state cannot be saved.
+     */
+    public void uploaded(String pageId, File attachment) throws IOException {
+        uploaded.set(key(pageId, attachment), stamp(attachment));
+        uploaded.save();
+    }
+
+    /**
+     * Forgets the attachments of a page, once its whole set is uploaded.
+     *
+     * @param pageId the id of the page.
+     *
+     * @throws IOException if the state cannot be saved.
+     */
+    public void completed(String pageId) throws IOException {
+        if (uploaded.removeIf(key -> key.startsWith(pageId + "|"))) {
+            uploaded.save();
+        }
+    }
+
+    private static String key(String pageId, File attachment) {
+        return pageId + "|" + attachment.getAbsolutePath();
+    }
+
+    private static String stamp(File attachment) {
+        return attachment.length() + "@" + attachment.lastModified();
+    }
+}
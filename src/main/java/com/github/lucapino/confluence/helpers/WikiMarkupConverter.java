@@ -0,0 +1,574 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import com.github.lucapino.confluence.macro.CodeBlockMacro;
+import com.github.lucapino.confluence.macro.ExpandMacro;
+import com.github.lucapino.confluence.macro.JiraIssuesMacro;
+import com.github.lucapino.confluence.macro.TableOfContentsMacro;
+import com.github.lucapino.confluence.util.StringUtils;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Converts the common subset of the Confluence wiki markup to storage format
+ * without calling the server.
+ * <p>
+ * Supported are headings, paragraphs, line breaks, horizontal rules, quotes,
+ * nested lists, tables, text effects, links to pages and URLs and the
+ * <code>{code}</code>, <code>{toc}</code>, <code>{expand}</code> and
+ * <code>{jiraissues}</code> macros, rendered with the builders of the
+ * <code>macro</code> package. Anything else makes {@link #toStorage(String)}
+ * return {@code null}, so the caller can fall back to the server conversion.
+ */
+public final class WikiMarkupConverter {
+
+    private static final Pattern MACRO = Pattern.compile("^\\{([a-zA-Z]+)(?::([^}]*))?\\}$");
+    private static final Pattern HEADING = Pattern.compile("^h([1-6])\\.\\s+(.*)$");
+    private static final Pattern QUOTE = Pattern.compile("^bq\\.\\s+(.*)$");
+    private static final Pattern LIST_ITEM = Pattern.compile("^([*#-]+)\\s+(.*)$");
+    private static final Pattern RULE = Pattern.compile("^-{4,}$");
+    private static final Pattern URL_PREFIX = Pattern.compile("^(https?://|ftp://|mailto:)");
+    private static final Pattern IMAGE = Pattern.compile("![^\\s!][^!]*!");
+    private static final Pattern EMOTICON = Pattern.compile(":\\)|:\\(|:P|:D|;\\)|\\((y|n|i|/|x|!|\\+|-|\\?|on|off|\\*[rgby]?)\\)");
+    private static final String[][] EFFECTS = {
+        {"*", "strong"},
+        {"_", "em"},
+        {"??", "cite"},
+        {"-", "del"},
+        {"+", "u"},
+        {"^", "sup"},
+        {"~", "sub"}
+    };
+
+    private WikiMarkupConverter() {
+    }
+
+    /**
+     * @param wiki the wiki markup.
+     *
+     * @return the content in storage format, or {@code null} if the markup
+     * uses constructs this converter does not support.
+     */
+    public static String toStorage(String wiki) {
+        try {
+            return new Block(wiki.split("\r?\n", -1)).convert();
+        } catch (UnsupportedMarkupException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Thrown when the markup cannot be converted locally.
+     */
+    private static class UnsupportedMarkupException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedMarkupException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Converts a sequence of lines.
+     */
+    private static class Block {
+
+        private final String[] lines;
+        private final StringBuilder out = new StringBuilder();
+        private final List<String> paragraph = new ArrayList<>();
+        private final Deque<String> lists = new ArrayDeque<>();
+        private boolean table;
+
+        Block(String[] lines) {
+            this.lines = lines;
+        }
+
+        String convert() throws UnsupportedMarkupException {
+            int i = 0;
+            while (i < lines.length) {
+                String line = lines[i].trim();
+                Matcher matcher;
+                if (line.isEmpty()) {
+                    flush();
+                } else if ((matcher = MACRO.matcher(line)).matches()) {
+                    flush();
+                    i = macro(matcher.group(1), parameters(matcher.group(2)), i);
+                } else if ((matcher = HEADING.matcher(line)).matches()) {
+                    flush();
+                    String tag = "h" + matcher.group(1);
+                    out.append('<').append(tag).append('>').append(inline(matcher.group(2))).append("</").append(tag).append('>');
+                } else if (RULE.matcher(line).matches()) {
+                    flush();
+                    out.append("<hr />");
+                } else if ((matcher = QUOTE.matcher(line)).matches()) {
+                    flush();
+                    out.append("<blockquote><p>").append(inline(matcher.group(1))).append("</p></blockquote>");
+                } else if ((matcher = LIST_ITEM.matcher(line)).matches()) {
+                    flushParagraph();
+                    closeTable();
+                    listItem(matcher.group(1), matcher.group(2));
+                } else if (line.startsWith("|")) {
+                    flushParagraph();
+                    closeLists();
+                    row(line);
+                } else {
+                    closeLists();
+                    closeTable();
+                    paragraph.add(line);
+                }
+                i++;
+            }
+            flush();
+            return out.toString();
+        }
+
+        /**
+         * Renders a block macro starting at line {@code start}.
+         *
+         * @return the index of the last line of the macro.
+         */
+        private int macro(String name, Map<String, String> parameters, int start) throws UnsupportedMarkupException {
+            switch (name) {
+                case "code": {
+                    int end = closing(name, start, false);
+                    out.append(code(parameters, body(start + 1, end)));
+                    return end;
+                }
+                case "expand": {
+                    int end = closing(name, start, true);
+                    String title = parameters.containsKey("title") ? parameters.get("title") : parameters.getOrDefault("", "");
+                    String[] inner = new String[end - start - 1];
+                    System.arraycopy(lines, start + 1, inner, 0, inner.length);
+                    out.append(ExpandMacro.builder().title(escape(title)).body(new Block(inner).convert()).build().toMarkup());
+                    return end;
+                }
+                case "toc":
+                    out.append(toc(parameters));
+                    return start;
+                case "jiraissues":
+                    out.append(jiraIssues(parameters));
+                    return start;
+                default:
+                    throw new UnsupportedMarkupException("Macro " + name);
+            }
+        }
+
+        /**
+         * @return the index of the line closing the macro opened at
+         * {@code start}.
+         */
+        private int closing(String name, int start, boolean nested) throws UnsupportedMarkupException {
+            String close = "{" + name + "}";
+            int depth = 0;
+            for (int i = start + 1; i < lines.length; i++) {
+                String line = lines[i].trim();
+                if (line.equals(close)) {
+                    if (depth == 0) {
+                        return i;
+                    }
+                    depth--;
+                } else if (nested && line.startsWith("{" + name + ":")) {
+                    depth++;
+                } else if (line.contains(close)) {
+                    throw new UnsupportedMarkupException("Macro " + name + " not closed on its own line");
+                }
+            }
+            throw new UnsupportedMarkupException("Macro " + name + " not closed");
+        }
+
+        private String body(int from, int to) {
+            StringBuilder body = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                if (i > from) {
+                    body.append('\n');
+                }
+                body.append(lines[i]);
+            }
+            return body.toString();
+        }
+
+        private void listItem(String markers, String text) throws UnsupportedMarkupException {
+            String[] types = new String[markers.length()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = markers.charAt(i) == '#' ? "ol" : "ul";
+            }
+            // keep the open lists matching the markers, close the others
+            int common = 0;
+            for (String type : reversed(lists)) {
+                if (common >= types.length || !type.equals(types[common])) {
+                    break;
+                }
+                common++;
+            }
+            while (lists.size() > common) {
+                out.append("</li></").append(lists.pop()).append('>');
+            }
+            if (lists.size() == types.length) {
+                out.append("</li>");
+            }
+            while (lists.size() < types.length) {
+                String type = types[lists.size()];
+                out.append('<').append(type).append('>');
+                lists.push(type);
+            }
+            out.append("<li>").append(inline(text));
+        }
+
+        private void row(String line) throws UnsupportedMarkupException {
+            if (!table) {
+                out.append("<table><tbody>");
+                table = true;
+            }
+            out.append("<tr>");
+            int i = 0;
+            while (i < line.length()) {
+                boolean header = line.startsWith("||", i);
+                i += header ? 2 : 1;
+                int depth = 0;
+                int end = i;
+                while (end < line.length() && (depth > 0 || line.charAt(end) != '|')) {
+                    char c = line.charAt(end);
+                    if (c == '[') {
+                        depth++;
+                    } else if (c == ']' && depth > 0) {
+                        depth--;
+                    }
+                    end++;
+                }
+                if (end == line.length() && line.substring(i).trim().isEmpty()) {
+                    // trailing delimiter
+                    break;
+                }
+                String tag = header ? "th" : "td";
+                out.append('<').append(tag).append('>').append(inline(line.substring(i, end).trim())).append("</").append(tag).append('>');
+                i = end;
+            }
+            out.append("</tr>");
+        }
+
+        private void flush() throws UnsupportedMarkupException {
+            flushParagraph();
+            closeLists();
+            closeTable();
+        }
+
+        private void flushParagraph() throws UnsupportedMarkupException {
+            if (!paragraph.isEmpty()) {
+                out.append("<p>");
+                for (int i = 0; i < paragraph.size(); i++) {
+                    if (i > 0) {
+                        out.append("<br />");
+                    }
+                    out.append(inline(paragraph.get(i)));
+                }
+                out.append("</p>");
+                paragraph.clear();
+            }
+        }
+
+        private void closeLists() {
+            while (!lists.isEmpty()) {
+                out.append("</li></").append(lists.pop()).append('>');
+            }
+        }
+
+        private void closeTable() {
+            if (table) {
+                out.append("</tbody></table>");
+                table = false;
+            }
+        }
+
+        private static List<String> reversed(Deque<String> deque) {
+            List<String> list = new ArrayList<>();
+            deque.descendingIterator().forEachRemaining(list::add);
+            return list;
+        }
+    }
+
+    private static String code(Map<String, String> parameters, String code) throws UnsupportedMarkupException {
+        CodeBlockMacro.Builder builder = CodeBlockMacro.builder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            String value = parameter.getValue();
+            switch (parameter.getKey()) {
+                case "":
+                case "language":
+                    builder.language(language(value));
+                    break;
+                case "title":
+                    builder.title(escape(value));
+                    break;
+                case "linenumbers":
+                    if (Boolean.parseBoolean(value)) {
+                        builder.showLineNumbers();
+                    }
+                    break;
+                case "collapse":
+                    if (Boolean.parseBoolean(value)) {
+                        builder.collapse();
+                    }
+                    break;
+                case "firstline":
+                    break;
+                case "theme":
+                    builder.theme(theme(value));
+                    break;
+                default:
+                    throw new UnsupportedMarkupException("Code parameter " + parameter.getKey());
+            }
+        }
+        // only meaningful, and accepted by the builder, after the line numbers
+        if (parameters.containsKey("firstline")) {
+            builder.firstline(integer(parameters.get("firstline")));
+        }
+        return builder.code(code.replace("]]>", "]]]]><![CDATA[>")).build().toMarkup();
+    }
+
+    private static CodeBlockMacro.Languages language(String value) throws UnsupportedMarkupException {
+        for (CodeBlockMacro.Languages language : CodeBlockMacro.Languages.values()) {
+            if (language.value.equalsIgnoreCase(value)) {
+                return language;
+            }
+        }
+        throw new UnsupportedMarkupException("Code language " + value);
+    }
+
+    private static CodeBlockMacro.Themes theme(String value) throws UnsupportedMarkupException {
+        for (CodeBlockMacro.Themes theme : CodeBlockMacro.Themes.values()) {
+            if (theme.toString().equalsIgnoreCase(value)) {
+                return theme;
+            }
+        }
+        throw new UnsupportedMarkupException("Code theme " + value);
+    }
+
+    private static String toc(Map<String, String> parameters) throws UnsupportedMarkupException {
+        TableOfContentsMacro.Builder builder = TableOfContentsMacro.builder();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            String value = parameter.getValue();
+            switch (parameter.getKey()) {
+                case "minLevel":
+                    builder.minHeadingLevel(integer(value));
+                    break;
+                case "maxLevel":
+                    builder.maxHeadingLevel(integer(value));
+                    break;
+                case "type":
+                    try {
+                        builder.outputType(TableOfContentsMacro.OutputType.valueOf(value.toUpperCase()));
+                    } catch (IllegalArgumentException e) {
+                        throw new UnsupportedMarkupException("Toc type " + value);
+                    }
+                    break;
+                case "outline":
+                    if (Boolean.parseBoolean(value)) {
+                        builder.enableNumbering();
+                    }
+                    break;
+                case "printable":
+                    if (!Boolean.parseBoolean(value)) {
+                        builder.disablePrinting();
+                    }
+                    break;
+                default:
+                    throw new UnsupportedMarkupException("Toc parameter " + parameter.getKey());
+            }
+        }
+        return builder.build().toMarkup();
+    }
+
+    private static String jiraIssues(Map<String, String> parameters) throws UnsupportedMarkupException {
+        JiraIssuesMacro.Builder builder = JiraIssuesMacro.builder();
+        try {
+            for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+                String value = parameter.getValue();
+                switch (parameter.getKey()) {
+                    case "":
+                    case "url":
+                        builder.url(new URL(value));
+                        break;
+                    case "columns": {
+                        String[] names = value.split("[;,]");
+                        JiraIssuesMacro.Columns[] columns = new JiraIssuesMacro.Columns[names.length];
+                        for (int i = 0; i < names.length; i++) {
+                            columns[i] = JiraIssuesMacro.Columns.valueOf(names[i].trim().toUpperCase());
+                        }
+                        builder.columns(columns);
+                        break;
+                    }
+                    case "count":
+                        builder.count(Boolean.parseBoolean(value));
+                        break;
+                    case "cache":
+                        builder.cache(JiraIssuesMacro.Cache.valueOf(value.toUpperCase()));
+                        break;
+                    case "height":
+                        builder.height(integer(value));
+                        break;
+                    case "renderMode":
+                        builder.renderMode(JiraIssuesMacro.RenderMode.valueOf(value.toUpperCase()));
+                        break;
+                    case "title":
+                        // escaped by the macro
+                        builder.title(value);
+                        break;
+                    case "width":
+                        builder.width(integer(value));
+                        break;
+                    default:
+                        throw new UnsupportedMarkupException("Jira issues parameter " + parameter.getKey());
+                }
+            }
+            return builder.build().toMarkup();
+        } catch (MalformedURLException | IllegalArgumentException | IllegalStateException e) {
+            throw new UnsupportedMarkupException("Jira issues: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses the parameters of a macro; an unnamed parameter is stored with
+     * an empty name.
+     */
+    private static Map<String, String> parameters(String parameters) {
+        Map<String, String> result = new LinkedHashMap<>();
+        if (parameters != null && !parameters.isEmpty()) {
+            for (String parameter : parameters.split("\\|")) {
+                int equals = parameter.indexOf('=');
+                if (equals < 0 || URL_PREFIX.matcher(parameter).find()) {
+                    result.put("", parameter.trim());
+                } else {
+                    result.put(parameter.substring(0, equals).trim(), parameter.substring(equals + 1).trim());
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int integer(String value) throws UnsupportedMarkupException {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new UnsupportedMarkupException("Not a number: " + value);
+        }
+    }
+
+    /**
+     * Converts the inline markup of a line: links, monospace, line breaks,
+     * escapes and text effects.
+     */
+    private static String inline(String text) throws UnsupportedMarkupException {
+        if (EMOTICON.matcher(text).find() || IMAGE.matcher(text).find() || text.contains("--")) {
+            // emoticons, images and dashes are rendered by the server
+            throw new UnsupportedMarkupException("Inline markup in " + text);
+        }
+        List<String> tokens = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(i + 1);
+                token(sb, tokens, next == '\\' ? "<br />" : escape(String.valueOf(next)));
+                i += 2;
+            } else if (text.startsWith("{{", i)) {
+                int end = text.indexOf("}}", i + 2);
+                if (end < 0) {
+                    throw new UnsupportedMarkupException("Unclosed monospace");
+                }
+                token(sb, tokens, "<code>" + escape(text.substring(i + 2, end)) + "</code>");
+                i = end + 2;
+            } else if (c == '{') {
+                throw new UnsupportedMarkupException("Inline macro");
+            } else if (c == '[') {
+                int end = text.indexOf(']', i);
+                if (end < 0) {
+                    throw new UnsupportedMarkupException("Unclosed link");
+                }
+                token(sb, tokens, link(text.substring(i + 1, end)));
+                i = end + 1;
+            } else if (URL_PREFIX.matcher(text).region(i, text.length()).lookingAt() && (i == 0 || Character.isWhitespace(text.charAt(i - 1)))) {
+                int end = i;
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+                    end++;
+                }
+                String url = text.substring(i, end);
+                token(sb, tokens, "<a href=\"" + escape(url) + "\">" + escape(url) + "</a>");
+                i = end;
+            } else {
+                sb.append(escape(String.valueOf(c)));
+                i++;
+            }
+        }
+        String result = sb.toString();
+        for (String[] effect : EFFECTS) {
+            String delimiter = effect[0].replaceAll("(.)", "\\\\$1");
+            String boundary = "\\" + effect[0].charAt(0);
+            result = result.replaceAll("(?<![\\w" + boundary + "])" + delimiter + "(?=\\S)(.+?)(?<=\\S)" + delimiter + "(?![\\w" + boundary + "])",
+                    "<" + effect[1] + ">$1</" + effect[1] + ">");
+        }
+        for (int t = 0; t < tokens.size(); t++) {
+            result = result.replace("\u0000" + t + "\u0000", tokens.get(t));
+        }
+        return result;
+    }
+
+    private static void token(StringBuilder sb, List<String> tokens, String markup) {
+        sb.append('\u0000').append(tokens.size()).append('\u0000');
+        tokens.add(markup);
+    }
+
+    private static String link(String link) throws UnsupportedMarkupException {
+        String[] parts = link.split("\\|", -1);
+        if (parts.length > 2) {
+            throw new UnsupportedMarkupException("Link tooltip");
+        }
+        String alias = parts.length == 2 ? parts[0].trim() : null;
+        String target = parts[parts.length - 1].trim();
+        if (URL_PREFIX.matcher(target).find()) {
+            return "<a href=\"" + escape(target) + "\">" + escape(alias != null ? alias : target) + "</a>";
+        }
+        if (target.isEmpty() || target.contains("^") || target.contains("#") || target.startsWith("~")
+                || target.startsWith("$") || (alias != null && alias.contains("]]>"))) {
+            // attachments, anchors, user profiles and content ids
+            throw new UnsupportedMarkupException("Link to " + target);
+        }
+        StringBuilder sb = new StringBuilder("<ac:link><ri:page ");
+        int colon = target.indexOf(':');
+        if (colon > 0) {
+            sb.append("ri:space-key=\"").append(escape(target.substring(0, colon))).append("\" ");
+            target = target.substring(colon + 1);
+        }
+        sb.append("ri:content-title=\"").append(escape(target)).append("\" />");
+        if (alias != null) {
+            sb.append("<ac:plain-text-link-body><![CDATA[").append(alias).append("]]></ac:plain-text-link-body>");
+        }
+        return sb.append("</ac:link>").toString();
+    }
+
+    private static String escape(String text) {
+        return StringUtils.escapeXml(text);
+    }
+}
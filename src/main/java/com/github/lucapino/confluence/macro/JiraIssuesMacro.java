@@ -229,6 +229,26 @@ public class JiraIssuesMacro {
         return sb.toString();
     }
 
+    /**
+     * Converts this {@code JiraIssuesMacro} into confluence storage format;
+     * the parameter values are escaped.
+     *
+     * @return a String containing the XML markup for this macro.
+     */
+    public String toMarkup() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<ac:structured-macro ac:name=\"jiraissues\">");
+        for (Map.Entry<Parameters, String> entry : parameters.entrySet()) {
+            sb.append("<ac:parameter ac:name=\"");
+            sb.append(StringUtils.convertToCamelCase(entry.getKey().name()));
+            sb.append("\">");
+            sb.append(StringUtils.escapeXml(entry.getValue()));
+            sb.append("</ac:parameter>");
+        }
+        sb.append("</ac:structured-macro>");
+        return sb.toString();
+    }
+
     /**
      * Builder factory method.
      *
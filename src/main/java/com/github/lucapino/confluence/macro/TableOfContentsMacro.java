@@ -100,7 +100,7 @@ public class TableOfContentsMacro {
 
         @Override
         public String toString() {
-            return StringUtils.convertToUpperCamel(this.name());
+            return StringUtils.convertToCamelCase(this.name());
         }
     }
 
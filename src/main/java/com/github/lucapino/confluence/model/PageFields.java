@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.model;
+
+import com.github.lucapino.confluence.rest.core.api.misc.ExpandField;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The fields of a page a lookup has to return.
+ * <p>
+ * Without an explicit <code>expand</code> parameter Confluence expands the
+ * history, space and version of every page it returns, so each lookup asks
+ * for the smallest set of fields the caller needs.
+ */
+public enum PageFields {
+
+    /**
+     * Only the id: a known id (absolute descriptor or cached) is used without
+     * calling the server.
+     */
+    ID(false, ExpandField.VERSION.getName()),
+    /**
+     * The id and the current version, always read from the server.
+     */
+    VERSION(true, ExpandField.VERSION.getName()),
+    /**
+     * The id, the current version and the body in storage format.
+     */
+    BODY(true, ExpandField.BODY_STORAGE.getName(), ExpandField.VERSION.getName()),
+    /**
+     * The id, the current version, the body in storage format and the
+     * ancestors, to compare a page with its template and its place in a tree.
+     */
+    TREE(true, ExpandField.BODY_STORAGE.getName(), ExpandField.VERSION.getName(), ExpandField.ANCESTORS.getName());
+
+    private final boolean fetch;
+    private final List<String> expand;
+
+    PageFields(boolean fetch, String... expand) {
+        this.fetch = fetch;
+        this.expand = Collections.unmodifiableList(Arrays.asList(expand));
+    }
+
+    /**
+     * @return <code>true</code> if the page has to be read from the server
+     * even when its id is known.
+     */
+    public boolean isFetch() {
+        return fetch;
+    }
+
+    /**
+     * @return the value of the <code>expand</code> parameter.
+     */
+    public List<String> getExpand() {
+        return expand;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of a published tree: the template it is rendered from, its position
+ * in the hierarchy and what has to be done to bring it up to date.
+ */
+public class PageNode {
+
+    /**
+     * What publishing a node requires.
+     */
+    public enum Action {
+        CREATE,
+        UPDATE,
+        SKIP
+    }
+
+    private final PageNode parent;
+    private final String title;
+    private final File source;
+    private final List<PageNode> children = new ArrayList<>();
+
+    private PageDescriptor page;
+    private Action action;
+    private Integer version;
+    private String parentId;
+    private String content;
+    private String digest;
+
+    /**
+     * Constructor.
+     *
+     * @param parent the parent node, {@code null} for the top level pages.
+     * @param title the page title.
+     * @param source the template of the page, may be {@code null} for a
+     * directory without index.
+     */
+    public PageNode(PageNode parent, String title, File source) {
+        this.parent = parent;
+        this.title = title;
+        this.source = source;
+        if (parent != null) {
+            parent.children.add(this);
+        }
+    }
+
+    public PageNode getParent() {
+        return parent;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public File getSource() {
+        return source;
+    }
+
+    public List<PageNode> getChildren() {
+        return children;
+    }
+
+    /**
+     * @return the number of ancestors of this node in the tree.
+     */
+    public int getDepth() {
+        return parent == null ? 0 : parent.getDepth() + 1;
+    }
+
+    public PageDescriptor getPage() {
+        return page;
+    }
+
+    public void setPage(PageDescriptor page) {
+        this.page = page;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public void setAction(Action action) {
+        this.action = action;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
+    /**
+     * @return the id of the parent of the existing page on the server, empty
+     * at the top of the space, {@code null} if unknown.
+     */
+    public String getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(String parentId) {
+        this.parentId = parentId;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.model;
+
+import com.google.gson.annotations.Expose;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An attachment already stored on a page, as listed by the attachment
+ * collection of the page. Like the beans of the REST client, only the
+ * {@link Expose}d fields are read.
+ */
+public class RemoteAttachment {
+
+    @Expose
+    private String id;
+    @Expose
+    private String title;
+    @Expose
+    private Extensions extensions;
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return the size of the attachment in bytes, -1 if unknown.
+     */
+    public long getFileSize() {
+        return extensions == null || extensions.fileSize == null ? -1 : extensions.fileSize;
+    }
+
+    /**
+     * @return the comment of the current version of the attachment, may be
+     * {@code null}.
+     */
+    public String getComment() {
+        return extensions == null ? null : extensions.comment;
+    }
+
+    private static class Extensions {
+
+        @Expose
+        private Long fileSize;
+        @Expose
+        private String comment;
+    }
+
+    /**
+     * A page of the attachment collection.
+     */
+    public static class Results {
+
+        @Expose
+        private List<RemoteAttachment> results;
+        @Expose
+        private Integer size;
+
+        public List<RemoteAttachment> getResults() {
+            return results == null ? Collections.emptyList() : results;
+        }
+
+        public int getSize() {
+            return size == null ? getResults().size() : size;
+        }
+    }
+}
@@ -82,5 +82,16 @@ public final class StringUtils {
                 s.substring(1).toLowerCase();
     }
 
+    /**
+     * Escapes the XML special characters, for use in element text and in
+     * attribute values.
+     *
+     * @param s the {@code String} to escape.
+     * @return the escaped {@code String}.
+     */
+    public static String escapeXml(final String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
 
 }
@@ -0,0 +1,605 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An in-process stand-in for the Confluence REST API, holding pages and
+ * attachments in memory.
+ * <p>
+ * It serves the calls made by the plugin: content lookup by id and by space
+ * and title, create, update with version checks, wiki to storage conversion
+ * and attachment list and upload. Every request can be delayed, throttled
+ * with a 429 or failed with a 500, to exercise the concurrency and retry
+ * paths of the client without a real server. Sessions can be enabled to
+ * check how often the client logs in, and concurrent edits injected to
+ * check how the version conflicts are retried.
+ */
+public class FakeConfluenceServer implements Closeable {
+
+    private static final Pattern CONTENT_ID = Pattern.compile("/rest/api/content/(\\d+)");
+    private static final Pattern ATTACHMENTS = Pattern.compile("/rest/api/content/(\\d+)/child/attachment(?:/(\\d+)/data)?");
+    private static final Pattern FILENAME = Pattern.compile("filename=\"([^\"]*)\"");
+    private static final Pattern SESSION = Pattern.compile("JSESSIONID=([0-9a-f]+)");
+    private static final Pattern COMMENT = Pattern.compile("name=\"comment\"\r\n(?:[^\r\n]+\r\n)*\r\n(.*?)\r\n--", Pattern.DOTALL);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Gson gson = new Gson();
+    private final AtomicInteger ids = new AtomicInteger(1000);
+    private final Map<String, JsonObject> pages = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, JsonObject>> attachments = new ConcurrentHashMap<>();
+    private final Map<String, Long> sessions = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicLong logins = new AtomicLong();
+    private final AtomicInteger concurrentEdits = new AtomicInteger();
+
+    private volatile String concurrentContent = "";
+    private volatile long latencyMillis;
+    private volatile double throttleRate;
+    private volatile int retryAfterSeconds;
+    private volatile double failureRate;
+    private volatile long sessionMillis;
+
+    /**
+     * Starts a server on a free port of the loopback interface.
+     *
+     * @param threads the number of threads serving the requests.
+     *
+     * @throws IOException if the server cannot be started.
+     */
+    public FakeConfluenceServer(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/rest/api/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @return the base URL to configure the plugin with.
+     */
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * @param millis the delay added to every request.
+     *
+     * @return {@code this}.
+     */
+    public FakeConfluenceServer latency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * @param rate the fraction of the requests answered 429.
+     * @param retryAfter the <code>Retry-After</code> of the throttled
+     * responses in seconds, negative to omit it.
+     *
+     * @return {@code this}.
+     */
+    public FakeConfluenceServer throttle(double rate, int retryAfter) {
+        this.throttleRate = rate;
+        this.retryAfterSeconds = retryAfter;
+        return this;
+    }
+
+    /**
+     * @param rate the fraction of the requests answered 500.
+     *
+     * @return {@code this}.
+     */
+    public FakeConfluenceServer failures(double rate) {
+        this.failureRate = rate;
+        return this;
+    }
+
+    /**
+     * Requires a session: a request with Basic credentials opens one, with a
+     * <code>JSESSIONID</code> cookie, and a request with neither is answered
+     * 401.
+     *
+     * @param millis the lifetime of a session, 0 or less to accept every
+     * request.
+     *
+     * @return {@code this}.
+     */
+    public FakeConfluenceServer sessions(long millis) {
+        this.sessionMillis = millis;
+        return this;
+    }
+
+    /**
+     * Makes the next page updates meet a concurrent edit: the content is
+     * appended to the page, as a new version, just before the update is
+     * checked, so the update is answered 409.
+     *
+     * @param count the number of updates to conflict.
+     * @param content the storage content appended by each edit.
+     *
+     * @return {@code this}.
+     */
+    public FakeConfluenceServer concurrentEdits(int count, String content) {
+        this.concurrentContent = content;
+        this.concurrentEdits.set(count);
+        return this;
+    }
+
+    /**
+     * Creates a page directly on the server.
+     *
+     * @param space the space key.
+     * @param title the page title.
+     * @param body the storage body.
+     *
+     * @return the id of the page.
+     */
+    public String addPage(String space, String title, String body) {
+        return addPage(space, title, body, null);
+    }
+
+    /**
+     * Creates a page directly on the server.
+     *
+     * @param space the space key.
+     * @param title the page title.
+     * @param body the storage body.
+     * @param parentId the id of the parent page, {@code null} for a page at
+     * the top of the space.
+     *
+     * @return the id of the page.
+     */
+    public String addPage(String space, String title, String body, String parentId) {
+        JsonObject page = new JsonObject();
+        page.addProperty("type", "page");
+        page.addProperty("title", title);
+        JsonObject spaceObject = new JsonObject();
+        spaceObject.addProperty("key", space);
+        page.add("space", spaceObject);
+        page.add("body", storage(body));
+        if (parentId != null) {
+            JsonObject ancestor = new JsonObject();
+            ancestor.addProperty("id", parentId);
+            JsonArray ancestors = new JsonArray();
+            ancestors.add(ancestor);
+            page.add("ancestors", ancestors);
+        }
+        return store(page, 1);
+    }
+
+    /**
+     * @param id the page id.
+     *
+     * @return the storage body of the page, {@code null} if there is no
+     * such page.
+     */
+    public String getBody(String id) {
+        JsonObject page = pages.get(id);
+        return page != null ? page.getAsJsonObject("body").getAsJsonObject("storage").get("value").getAsString() : null;
+    }
+
+    /**
+     * @param id the page id.
+     *
+     * @return the representation the storage body was sent in.
+     */
+    public String getRepresentation(String id) {
+        return pages.get(id).getAsJsonObject("body").getAsJsonObject("storage").get("representation").getAsString();
+    }
+
+    /**
+     * @param space the space key.
+     * @param title the page title.
+     *
+     * @return the id of the page, {@code null} if there is no such page.
+     */
+    public String getPageId(String space, String title) {
+        for (JsonObject page : pages.values()) {
+            if (page.get("title").getAsString().equals(title)
+                    && page.getAsJsonObject("space").get("key").getAsString().equals(space)) {
+                return page.get("id").getAsString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param id the page id.
+     *
+     * @return the id of the parent page, {@code null} for a page at the top
+     * of the space.
+     */
+    public String getParentId(String id) {
+        JsonObject page = pages.get(id);
+        JsonArray ancestors = page.has("ancestors") ? page.getAsJsonArray("ancestors") : new JsonArray();
+        return ancestors.size() == 0 ? null : ancestors.get(ancestors.size() - 1).getAsJsonObject().get("id").getAsString();
+    }
+
+    /**
+     * @param id the page id.
+     *
+     * @return the current version of the page.
+     */
+    public int getVersion(String id) {
+        return pages.get(id).getAsJsonObject("version").get("number").getAsInt();
+    }
+
+    public long getLoginCount() {
+        return logins.get();
+    }
+
+    public long getConflictCount() {
+        return conflicts.get();
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    public int getAttachmentCount() {
+        return attachments.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * @return a one line summary of the requests served.
+     */
+    public String getSummary() {
+        return String.format("Fake server: %d request(s), %d login(s), %d throttled, %d failed, %d version conflict(s), "
+                + "%d page(s), %d attachment(s), %.2f MB uploaded", requests.get(), logins.get(), throttled.get(),
+                failed.get(), conflicts.get(), getPageCount(), getAttachmentCount(), uploadedBytes.get() / (1024.0 * 1024.0));
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            }
+            byte[] request = read("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                    ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody());
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < throttleRate) {
+                throttled.incrementAndGet();
+                if (retryAfterSeconds >= 0) {
+                    exchange.getResponseHeaders().add("Retry-After", Integer.toString(retryAfterSeconds));
+                }
+                send(exchange, 429, error(429, "Rate limit exceeded"));
+            } else if (random.nextDouble() < failureRate) {
+                failed.incrementAndGet();
+                send(exchange, 500, error(500, "Injected failure"));
+            } else if (!authenticate(exchange)) {
+                send(exchange, 401, error(401, "Not authenticated"));
+            } else {
+                route(exchange, request);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            send(exchange, 500, error(500, String.valueOf(e)));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean authenticate(HttpExchange exchange) {
+        if (sessionMillis <= 0) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+        Matcher session = SESSION.matcher(cookie != null ? cookie : "");
+        if (session.find()) {
+            Long expiry = sessions.get(session.group(1));
+            if (expiry != null && expiry > now) {
+                return true;
+            }
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Basic ")) {
+            return false;
+        }
+        logins.incrementAndGet();
+        String id = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+        sessions.put(id, now + sessionMillis);
+        exchange.getResponseHeaders().add("Set-Cookie", "JSESSIONID=" + id + "; Path=/; HttpOnly");
+        return true;
+    }
+
+    private void route(HttpExchange exchange, byte[] request) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        Matcher attachment = ATTACHMENTS.matcher(path);
+        Matcher content = CONTENT_ID.matcher(path);
+        if (path.equals("/rest/api/contentbody/convert/storage") && "POST".equals(method)) {
+            JsonObject wiki = parse(request);
+            JsonObject storage = new JsonObject();
+            storage.addProperty("value", "<p>" + escape(wiki.get("value").getAsString()) + "</p>");
+            storage.addProperty("representation", "storage");
+            send(exchange, 200, storage);
+        } else if (path.equals("/rest/api/content") && "GET".equals(method)) {
+            lookup(exchange, query(exchange.getRequestURI().getRawQuery()));
+        } else if (path.equals("/rest/api/content") && "POST".equals(method)) {
+            create(exchange, parse(request));
+        } else if (attachment.matches()) {
+            attachment(exchange, method, attachment.group(1), attachment.group(2), request);
+        } else if (content.matches() && "GET".equals(method)) {
+            JsonObject page = pages.get(content.group(1));
+            if (page == null) {
+                send(exchange, 404, error(404, "No content with id " + content.group(1)));
+            } else {
+                send(exchange, 200, page);
+            }
+        } else if (content.matches() && "PUT".equals(method)) {
+            update(exchange, content.group(1), parse(request));
+        } else {
+            send(exchange, 404, error(404, "Unsupported " + method + " " + path));
+        }
+    }
+
+    private void lookup(HttpExchange exchange, Map<String, String> query) throws IOException {
+        JsonArray results = new JsonArray();
+        for (JsonObject page : pages.values()) {
+            if (page.get("title").getAsString().equals(query.get("title"))
+                    && page.getAsJsonObject("space").get("key").getAsString().equals(query.get("spaceKey"))) {
+                results.add(page);
+            }
+        }
+        JsonObject response = new JsonObject();
+        response.add("results", results);
+        response.addProperty("start", 0);
+        response.addProperty("limit", 25);
+        response.addProperty("size", results.size());
+        send(exchange, 200, response);
+    }
+
+    private void create(HttpExchange exchange, JsonObject page) throws IOException {
+        String space = page.getAsJsonObject("space").get("key").getAsString();
+        String title = page.get("title").getAsString();
+        synchronized (pages) {
+            for (JsonObject existing : pages.values()) {
+                if (existing.get("title").getAsString().equals(title)
+                        && existing.getAsJsonObject("space").get("key").getAsString().equals(space)) {
+                    send(exchange, 400, error(400, "A page with this title already exists"));
+                    return;
+                }
+            }
+            page.remove("version");
+            store(page, 1);
+        }
+        send(exchange, 200, page);
+    }
+
+    private void update(HttpExchange exchange, String id, JsonObject update) throws IOException {
+        synchronized (pages) {
+            JsonObject page = pages.get(id);
+            if (page == null) {
+                send(exchange, 404, error(404, "No content with id " + id));
+                return;
+            }
+            if (concurrentEdits.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                JsonObject edit = new JsonObject();
+                edit.add("type", page.get("type"));
+                edit.add("title", page.get("title"));
+                edit.add("space", page.get("space"));
+                if (page.has("ancestors")) {
+                    edit.add("ancestors", page.get("ancestors"));
+                }
+                edit.addProperty("id", id);
+                edit.add("body", storage(getBody(id) + concurrentContent));
+                store(edit, page.getAsJsonObject("version").get("number").getAsInt() + 1);
+                page = edit;
+            }
+            int current = page.getAsJsonObject("version").get("number").getAsInt();
+            JsonElement sent = update.has("version") ? update.getAsJsonObject("version").get("number") : null;
+            if (sent == null || sent.getAsInt() != current + 1) {
+                conflicts.incrementAndGet();
+                send(exchange, 409, error(409, "Version must be incremented on update. Current version is: " + current));
+                return;
+            }
+            update.addProperty("id", id);
+            if (!update.has("space")) {
+                update.add("space", page.get("space"));
+            }
+            if (!update.has("ancestors") && page.has("ancestors")) {
+                update.add("ancestors", page.get("ancestors"));
+            }
+            store(update, current + 1);
+            send(exchange, 200, update);
+        }
+    }
+
+    private void attachment(HttpExchange exchange, String method, String pageId, String attachmentId, byte[] request)
+            throws IOException {
+        if (!pages.containsKey(pageId)) {
+            send(exchange, 404, error(404, "No content with id " + pageId));
+            return;
+        }
+        Map<String, JsonObject> pageAttachments = attachments.computeIfAbsent(pageId, id -> new ConcurrentHashMap<>());
+        JsonObject results = new JsonObject();
+        if ("GET".equals(method)) {
+            JsonArray list = new JsonArray();
+            pageAttachments.values().forEach(list::add);
+            results.add("results", list);
+            results.addProperty("size", list.size());
+            send(exchange, 200, results);
+            return;
+        }
+        // enough of the multipart body to find the name, size and comment of the file
+        String body = new String(request, StandardCharsets.ISO_8859_1);
+        Matcher filename = FILENAME.matcher(body);
+        Matcher comment = COMMENT.matcher(body);
+        String title = "unnamed";
+        long fileSize = request.length;
+        if (filename.find()) {
+            title = filename.group(1);
+            int start = body.indexOf("\r\n\r\n", filename.end()) + 4;
+            int end = body.indexOf("\r\n--", start);
+            fileSize = end - start;
+        }
+        uploadedBytes.addAndGet(request.length);
+        synchronized (pageAttachments) {
+            JsonObject existing = pageAttachments.get(title);
+            if (attachmentId == null && existing != null) {
+                send(exchange, 400, error(400, "Cannot add a new attachment with same file name as an existing attachment: " + title));
+                return;
+            }
+            JsonObject attachment = new JsonObject();
+            attachment.addProperty("id", attachmentId != null ? attachmentId : Integer.toString(ids.incrementAndGet()));
+            attachment.addProperty("type", "attachment");
+            attachment.addProperty("title", title);
+            JsonObject extensions = new JsonObject();
+            extensions.addProperty("fileSize", fileSize);
+            if (comment.find()) {
+                extensions.addProperty("comment", new String(comment.group(1).getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8));
+            }
+            attachment.add("extensions", extensions);
+            pageAttachments.put(title, attachment);
+            if (attachmentId != null) {
+                send(exchange, 200, attachment);
+            } else {
+                JsonArray list = new JsonArray();
+                list.add(attachment);
+                results.add("results", list);
+                results.addProperty("size", 1);
+                send(exchange, 200, results);
+            }
+        }
+    }
+
+    private String store(JsonObject page, int version) {
+        String id = page.has("id") ? page.get("id").getAsString() : Integer.toString(ids.incrementAndGet());
+        page.addProperty("id", id);
+        JsonArray ancestors = page.has("ancestors") ? page.getAsJsonArray("ancestors") : null;
+        if (ancestors != null && ancestors.size() > 0) {
+            // the client sends the parent, the server returns the whole path from the top of the space
+            JsonElement parentId = ancestors.get(ancestors.size() - 1).getAsJsonObject().get("id");
+            JsonObject parentPage = pages.get(parentId.getAsString());
+            JsonArray path = new JsonArray();
+            if (parentPage != null && parentPage.has("ancestors")) {
+                path.addAll(parentPage.getAsJsonArray("ancestors"));
+            }
+            JsonObject ancestor = new JsonObject();
+            ancestor.add("id", parentId);
+            path.add(ancestor);
+            page.add("ancestors", path);
+        }
+        JsonObject versionObject = new JsonObject();
+        versionObject.addProperty("number", version);
+        page.add("version", versionObject);
+        pages.put(id, page);
+        return id;
+    }
+
+    private static JsonObject storage(String value) {
+        JsonObject storage = new JsonObject();
+        storage.addProperty("value", value);
+        storage.addProperty("representation", "storage");
+        JsonObject body = new JsonObject();
+        body.add("storage", storage);
+        return body;
+    }
+
+    private static JsonObject error(int status, String message) {
+        JsonObject error = new JsonObject();
+        error.addProperty("statusCode", status);
+        error.addProperty("message", message);
+        return error;
+    }
+
+    private void send(HttpExchange exchange, int status, JsonElement body) throws IOException {
+        byte[] bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static JsonObject parse(byte[] request) {
+        return new JsonParser().parse(new InputStreamReader(new ByteArrayInputStream(request), StandardCharsets.UTF_8))
+                .getAsJsonObject();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<String, String> query(String rawQuery) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    query.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
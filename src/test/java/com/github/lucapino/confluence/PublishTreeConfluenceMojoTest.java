@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence;
+
+import com.github.lucapino.confluence.client.ClientRegistry;
+import com.github.lucapino.confluence.helpers.ChangePlan;
+import com.github.lucapino.confluence.model.PageDescriptor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class PublishTreeConfluenceMojoTest {
+
+    private static final String SPACE = "DOC";
+
+    private FakeConfluenceServer server;
+    private File work;
+    private File tree;
+    private String rootId;
+
+    @BeforeMethod
+    public void start() throws IOException {
+        server = new FakeConfluenceServer(4);
+        rootId = server.addPage(SPACE, "Home", "<p>home</p>");
+        work = Files.createTempDirectory("publish-tree").toFile();
+        tree = new File(work, "tree");
+        write("Overview.vm", "<p>overview</p>");
+        write("guide/index.vm", "<p>guide</p>");
+        write("guide/Install.vm", "<p>install</p>");
+        write("api/Rest.vm", "<p>rest</p>");
+        ChangePlan.reset();
+    }
+
+    @AfterMethod
+    public void stop() throws IOException {
+        ClientRegistry.shutdown();
+        ChangePlan.reset();
+        server.close();
+        FileUtils.deleteDirectory(work);
+    }
+
+    @Test
+    public void createsThePagesUnderTheirDirectories() throws Exception {
+        newMojo().doExecute();
+
+        String guide = server.getPageId(SPACE, "guide");
+        String api = server.getPageId(SPACE, "api");
+        assertEquals(server.getParentId(server.getPageId(SPACE, "Overview")), rootId);
+        assertEquals(server.getParentId(guide), rootId);
+        assertEquals(server.getParentId(api), rootId);
+        assertEquals(server.getParentId(server.getPageId(SPACE, "Install")), guide);
+        assertEquals(server.getParentId(server.getPageId(SPACE, "Rest")), api);
+        // the index file is the content of its directory page
+        assertEquals(server.getBody(guide), "<p>guide</p>");
+        assertEquals(server.getBody(api), "");
+        assertNull(server.getPageId(SPACE, "index"));
+        assertEquals(server.getPageCount(), 6);
+    }
+
+    @Test
+    public void updatesTheChangedPagesOnly() throws Exception {
+        newMojo().doExecute();
+        write("guide/Install.vm", "<p>install, second edition</p>");
+
+        newMojo().doExecute();
+
+        String install = server.getPageId(SPACE, "Install");
+        assertEquals(server.getBody(install), "<p>install, second edition</p>");
+        assertEquals(server.getVersion(install), 2);
+        assertEquals(server.getVersion(server.getPageId(SPACE, "Overview")), 1);
+        assertEquals(server.getVersion(server.getPageId(SPACE, "guide")), 1);
+    }
+
+    @Test
+    public void retriesAnUpdateEditedSinceThePlan() throws Exception {
+        newMojo().doExecute();
+        write("Overview.vm", "<p>overview, second edition</p>");
+        server.concurrentEdits(1, "<p>other</p>");
+
+        newMojo().doExecute();
+
+        String overview = server.getPageId(SPACE, "Overview");
+        assertEquals(server.getBody(overview), "<p>overview, second edition</p>");
+        assertEquals(server.getVersion(overview), 3);
+        assertEquals(server.getConflictCount(), 1);
+    }
+
+    @Test
+    public void rejectsTwoPagesWithTheSameTitle() throws Exception {
+        write("api/install.vm", "<p>another install</p>");
+
+        try {
+            newMojo().doExecute();
+            fail("the publication should have been rejected");
+        } catch (MojoFailureException e) {
+            assertEquals(e.getMessage(), "Both " + new File("api", "install.vm") + " and " + new File("guide", "Install.vm")
+                    + " would be published as page 'Install' in space DOC");
+        }
+        assertEquals(server.getPageCount(), 1);
+    }
+
+    @Test
+    public void movesAPageOfTheTreeUnderItsDirectory() throws Exception {
+        String install = server.addPage(SPACE, "Install", "<p>install</p>", rootId);
+
+        newMojo().doExecute();
+
+        assertEquals(server.getParentId(install), server.getPageId(SPACE, "guide"));
+        assertEquals(server.getVersion(install), 2);
+    }
+
+    @Test
+    public void rejectsAPageOutsideTheTree() throws Exception {
+        String overview = server.addPage(SPACE, "Overview", "<p>unrelated</p>");
+
+        try {
+            newMojo().doExecute();
+            fail("the publication should have been rejected");
+        } catch (MojoFailureException e) {
+            assertEquals(e.getMessage(), "Page 'Overview' already exists in space DOC outside of 'Home', "
+                    + "set movePagesIntoTree to move it into the tree");
+        }
+        assertEquals(server.getBody(overview), "<p>unrelated</p>");
+        assertEquals(server.getPageCount(), 2);
+    }
+
+    @Test
+    public void movesAPageOutsideTheTreeWhenAsked() throws Exception {
+        String overview = server.addPage(SPACE, "Overview", "<p>unrelated</p>");
+        PublishTreeConfluenceMojo mojo = newMojo();
+        set(mojo, "movePagesIntoTree", true);
+
+        mojo.doExecute();
+
+        assertEquals(server.getParentId(overview), rootId);
+        assertEquals(server.getBody(overview), "<p>overview</p>");
+    }
+
+    @Test
+    public void plansTheChangesOfADryRun() throws Exception {
+        newMojo().doExecute();
+        write("Overview.vm", "<p>overview, second edition</p>");
+        write("guide/Upgrade.vm", "<p>upgrade</p>");
+        PublishTreeConfluenceMojo mojo = newMojo();
+        set(mojo, "dryRun", true);
+
+        mojo.doExecute();
+
+        File plan = new File(work, "plan.json");
+        ChangePlan.writeJson(plan);
+        String json = new String(Files.readAllBytes(plan.toPath()), StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"create-page\""), json);
+        assertTrue(json.contains("\"DOC/Upgrade\""), json);
+        assertTrue(json.contains("\"update-page\""), json);
+        assertTrue(json.contains("\"DOC/Overview\""), json);
+        assertTrue(json.contains("\"skip-page\""), json);
+        assertNull(server.getPageId(SPACE, "Upgrade"));
+        assertEquals(server.getVersion(server.getPageId(SPACE, "Overview")), 1);
+    }
+
+    private PublishTreeConfluenceMojo newMojo() throws Exception {
+        PublishTreeConfluenceMojo mojo = new PublishTreeConfluenceMojo();
+        set(mojo, "url", server.getUrl());
+        set(mojo, "username", "user");
+        set(mojo, "password", "secret");
+        set(mojo, "pageCacheTtl", 0L);
+        set(mojo, "conversionCacheDirectory", new File(work, "conversions"));
+        set(mojo, "digestFile", new File(work, "page-digests.properties"));
+        set(mojo, "parent", new PageDescriptor(null, SPACE, "Home"));
+        set(mojo, "sourceDirectory", tree);
+        set(mojo, "wikiFormat", Boolean.FALSE);
+        return mojo;
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(tree, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void set(Object mojo, String field, Object value) throws IllegalAccessException {
+        ReflectionUtils.setVariableValueInObject(mojo, field, value);
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence;
+
+import com.github.lucapino.confluence.client.ClientRegistry;
+import com.github.lucapino.confluence.helpers.StorageSection;
+import com.github.lucapino.confluence.model.PageDescriptor;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class UpdatePageConfluenceMojoTest {
+
+    private static final String SPACE = "DOC";
+    private static final String OTHER = "<p>other</p>";
+
+    private FakeConfluenceServer server;
+    private File work;
+
+    @BeforeMethod
+    public void start() throws IOException {
+        server = new FakeConfluenceServer(4);
+        work = Files.createTempDirectory("update-page").toFile();
+    }
+
+    @AfterMethod
+    public void stop() throws IOException {
+        ClientRegistry.shutdown();
+        server.close();
+        FileUtils.deleteDirectory(work);
+    }
+
+    @Test
+    public void retriesTheUpdateOnTheLatestVersion() throws Exception {
+        String id = server.addPage(SPACE, "Home", "<p>intro</p>");
+        server.concurrentEdits(2, OTHER);
+
+        newMojo("Home", "<p>mine</p>", 5).doExecute();
+
+        assertEquals(server.getBody(id), "<p>intro</p>" + OTHER + OTHER + "<p>mine</p>");
+        assertEquals(server.getVersion(id), 4);
+        assertEquals(server.getConflictCount(), 2);
+    }
+
+    @Test
+    public void givesUpAfterTheMaximumNumberOfRetries() throws Exception {
+        String id = server.addPage(SPACE, "Home", "<p>intro</p>");
+        server.concurrentEdits(3, OTHER);
+
+        try {
+            newMojo("Home", "<p>mine</p>", 1).doExecute();
+            fail("the update should have given up");
+        } catch (MojoFailureException e) {
+            assertEquals(e.getMessage(), "Page 'Home' keeps being modified concurrently, giving up after 1 retries");
+        }
+        assertEquals(server.getBody(id), "<p>intro</p>" + OTHER + OTHER);
+        assertEquals(server.getVersion(id), 3);
+    }
+
+    @Test
+    public void retriesASectionUpdateOnTheLatestVersion() throws Exception {
+        String page = "<p>intro</p>" + StorageSection.anchor("notes") + "<p>old</p>" + StorageSection.anchor("end") + "<p>tail</p>";
+        String id = server.addPage(SPACE, "Home", page);
+        server.concurrentEdits(1, OTHER);
+        UpdatePageConfluenceMojo mojo = newMojo("Home", "<p>mine</p>", 5);
+        set(mojo, "append", false);
+        set(mojo, "section", "notes");
+
+        mojo.doExecute();
+
+        assertEquals(server.getBody(id), "<p>intro</p>" + StorageSection.anchor("notes") + "<p>mine</p>"
+                + StorageSection.anchor("end") + "<p>tail</p>" + OTHER);
+        assertEquals(server.getVersion(id), 3);
+    }
+
+    @Test
+    public void convertsTheWikiMarkupOfASection() throws Exception {
+        String page = "<p>intro</p>" + StorageSection.anchor("notes") + "<p>old</p>";
+        String id = server.addPage(SPACE, "Home", page);
+        UpdatePageConfluenceMojo mojo = newMojo("Home", "a < b", 5);
+        set(mojo, "append", false);
+        set(mojo, "section", "notes");
+        set(mojo, "wikiFormat", Boolean.TRUE);
+
+        mojo.doExecute();
+
+        // the fake server converts the markup to an escaped paragraph
+        assertEquals(server.getBody(id), "<p>intro</p>" + StorageSection.anchor("notes") + "<p>a &lt; b</p>");
+    }
+
+    @Test
+    public void convertsTheWikiMarkupAppendedToThePage() throws Exception {
+        String id = server.addPage(SPACE, "Home", "<p>intro</p>");
+        UpdatePageConfluenceMojo mojo = newMojo("Home", "a < b", 5);
+        set(mojo, "wikiFormat", Boolean.TRUE);
+
+        mojo.doExecute();
+
+        assertEquals(server.getBody(id), "<p>intro</p><p>a &lt; b</p>");
+        assertEquals(server.getRepresentation(id), "storage");
+    }
+
+    @Test
+    public void sendsTheWikiMarkupReplacingThePage() throws Exception {
+        String id = server.addPage(SPACE, "Home", "<p>intro</p>");
+        UpdatePageConfluenceMojo mojo = newMojo("Home", "a < b", 5);
+        set(mojo, "append", false);
+        set(mojo, "wikiFormat", Boolean.TRUE);
+
+        mojo.doExecute();
+
+        // converted by the server when it is stored
+        assertEquals(server.getBody(id), "a < b");
+        assertEquals(server.getRepresentation(id), "wiki");
+    }
+
+    @Test
+    public void aggregatesTheModulesFromTheLastOne() throws Exception {
+        String id = server.addPage(SPACE, "Home", "<p>intro</p>");
+        List<MavenProject> projects = newProjects(2);
+        MavenSession session = newSession(projects);
+
+        newAggregatingMojo(session, projects.get(0), 5).execute();
+        assertEquals(server.getVersion(id), 1);
+        newAggregatingMojo(session, projects.get(1), 5).execute();
+
+        assertEquals(server.getBody(id), "<p>intro</p><p>module 0</p><p>module 1</p>");
+        assertEquals(server.getVersion(id), 2);
+    }
+
+    @Test
+    public void failsTheLastModuleWhenTheAggregatedUpdateFails() throws Exception {
+        String id = server.addPage(SPACE, "Home", "<p>intro</p>");
+        server.concurrentEdits(1, OTHER);
+        List<MavenProject> projects = newProjects(2);
+        MavenSession session = newSession(projects);
+        newAggregatingMojo(session, projects.get(0), 0).execute();
+
+        try {
+            newAggregatingMojo(session, projects.get(1), 0).execute();
+            fail("the aggregated update should have failed");
+        } catch (MojoExecutionException e) {
+            assertEquals(e.getMessage(), "Unable to update the aggregated page 'Home'");
+            assertTrue(e.getCause() instanceof MojoFailureException);
+        }
+        assertEquals(server.getBody(id), "<p>intro</p>" + OTHER);
+        // nothing left for the end of the build
+        ClientRegistry.endSession(session);
+        assertEquals(server.getVersion(id), 2);
+    }
+
+    @Test
+    public void failsTheBuildWhenTheUpdateAtTheEndOfTheBuildFails() throws Exception {
+        server.addPage(SPACE, "Home", "<p>intro</p>");
+        server.concurrentEdits(1, OTHER);
+        List<MavenProject> projects = newProjects(2);
+        MavenSession session = newSession(projects);
+        // in a parallel build the pages are only updated when the build ends
+        session.setParallel(true);
+        newAggregatingMojo(session, projects.get(0), 0).execute();
+        newAggregatingMojo(session, projects.get(1), 0).execute();
+
+        try {
+            ClientRegistry.endSession(session);
+            fail("the aggregated update should have failed");
+        } catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "Unable to update the aggregated page 'Home'");
+        }
+        assertEquals(session.getResult().getExceptions().size(), 1);
+    }
+
+    @Test
+    public void aggregatesTheModulesInReactorOrderWhenTheBuildEnds() throws Exception {
+        String id = server.addPage(SPACE, "Home", "<p>intro</p>");
+        List<MavenProject> projects = newProjects(3);
+        MavenSession session = newSession(projects);
+        // the last module does not run the goal
+        for (int i : new int[]{1, 0}) {
+            newAggregatingMojo(session, projects.get(i), 5).execute();
+        }
+        assertEquals(server.getVersion(id), 1);
+
+        ClientRegistry.endSession(session);
+
+        assertEquals(server.getBody(id), "<p>intro</p><p>module 0</p><p>module 1</p>");
+        assertEquals(server.getVersion(id), 2);
+    }
+
+    private UpdatePageConfluenceMojo newMojo(String title, String content, int maxConflictRetries) throws Exception {
+        File template = new File(work, title + ".vm");
+        Files.write(template.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        UpdatePageConfluenceMojo mojo = new UpdatePageConfluenceMojo();
+        set(mojo, "url", server.getUrl());
+        set(mojo, "username", "user");
+        set(mojo, "password", "secret");
+        set(mojo, "pageCacheTtl", 0L);
+        set(mojo, "conversionCacheDirectory", new File(work, "conversions"));
+        set(mojo, "parent", new PageDescriptor(null, SPACE, title));
+        set(mojo, "pageTitle", title);
+        set(mojo, "inputFile", template);
+        set(mojo, "wikiFormat", Boolean.FALSE);
+        set(mojo, "append", true);
+        set(mojo, "maxConflictRetries", maxConflictRetries);
+        return mojo;
+    }
+
+    private UpdatePageConfluenceMojo newAggregatingMojo(MavenSession session, MavenProject project, int maxConflictRetries)
+            throws Exception {
+        UpdatePageConfluenceMojo mojo = newMojo("Home", "<p>module " + session.getProjects().indexOf(project) + "</p>",
+                maxConflictRetries);
+        set(mojo, "mavenSession", session);
+        set(mojo, "project", project);
+        set(mojo, "aggregate", true);
+        return mojo;
+    }
+
+    private static List<MavenProject> newProjects(int count) {
+        List<MavenProject> projects = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            MavenProject project = new MavenProject();
+            project.setArtifactId("module-" + i);
+            projects.add(project);
+        }
+        return projects;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static MavenSession newSession(List<MavenProject> projects) {
+        return new MavenSession(null, new DefaultMavenExecutionRequest(), new DefaultMavenExecutionResult(), projects);
+    }
+
+    private static void set(Object mojo, String field, Object value) throws IllegalAccessException {
+        ReflectionUtils.setVariableValueInObject(mojo, field, value);
+    }
+}
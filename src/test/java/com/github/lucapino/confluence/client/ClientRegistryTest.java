@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class ClientRegistryTest {
+
+    private static final String URL = "http://localhost:8090";
+
+    @AfterMethod
+    public void shutdown() {
+        ClientRegistry.shutdown();
+    }
+
+    @Test
+    public void sharesOneClientPerAccount() throws Exception {
+        MavenSession session = newSession();
+        ConfluenceClient client = ClientRegistry.getClient(session, URL, null, "user", "secret", null, 2);
+
+        assertSame(ClientRegistry.getClient(session, URL, null, "user", "secret", null, 8), client);
+        assertEquals(client.getThreads(), 2);
+        assertNotSame(ClientRegistry.getClient(session, URL, null, "user", "changed", null, 2), client);
+        assertNotSame(ClientRegistry.getClient(session, URL, null, "other", "secret", null, 2), client);
+    }
+
+    @Test
+    public void runsTheTasksAndClosesTheClientsWhenTheSessionEnds() throws Exception {
+        MavenSession session = newSession();
+        ConfluenceClient client = ClientRegistry.getClient(session, URL, null, "user", "secret", null, 2);
+        List<String> ran = new ArrayList<>();
+        ClientRegistry.atSessionEnd(session, "report", () -> ran.add("first report"));
+        ClientRegistry.atSessionEnd(session, "flush", () -> ran.add("flush"));
+        // registered again by a later execution
+        ClientRegistry.atSessionEnd(session, "report", () -> {
+            assertFalse(client.getExecutorService().isShutdown());
+            ran.add("report");
+        });
+
+        // Maven fires the event on the listener of the request
+        session.getRequest().getExecutionListener().sessionEnded(null);
+
+        assertEquals(ran, Arrays.asList("flush", "report"));
+        assertTrue(client.getExecutorService().isShutdown());
+        assertNotSame(ClientRegistry.getClient(session, URL, null, "user", "secret", null, 2), client);
+    }
+
+    @Test
+    public void theTasksUseTheClientsOfTheEndingSession() throws Exception {
+        MavenSession session = newSession();
+        ConfluenceClient client = ClientRegistry.getClient(session, URL, null, "user", "secret", null, 2);
+        List<ConfluenceClient> used = new ArrayList<>();
+        ClientRegistry.atSessionEnd(session, "flush", () -> {
+            try {
+                used.add(ClientRegistry.getClient(session, URL, null, "user", "secret", null, 2));
+            } catch (URISyntaxException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        ClientRegistry.atSessionEnd(session, "report", () -> used.add(null));
+
+        ClientRegistry.endSession(session);
+
+        assertEquals(used, Arrays.asList(client, null));
+        assertTrue(client.getExecutorService().isShutdown());
+    }
+
+    @Test
+    public void anEndedSessionDoesNotRunTheTasksAgain() throws Exception {
+        MavenSession session = newSession();
+        List<String> ran = new ArrayList<>();
+        ClientRegistry.atSessionEnd(session, "report", () -> ran.add("report"));
+
+        ClientRegistry.endSession(session);
+        ClientRegistry.endSession(session);
+
+        assertEquals(ran, Collections.singletonList("report"));
+    }
+
+    @Test
+    public void aNewSessionDropsTheTasksOfThePreviousOne() throws Exception {
+        List<String> ran = new ArrayList<>();
+        MavenSession previous = newSession();
+        ConfluenceClient client = ClientRegistry.getClient(previous, URL, null, "user", "secret", null, 2);
+        ClientRegistry.atSessionEnd(previous, "report", () -> ran.add("previous"));
+
+        MavenSession session = newSession();
+        ClientRegistry.atSessionEnd(session, "report", () -> ran.add("current"));
+        assertTrue(client.getExecutorService().isShutdown());
+        ClientRegistry.endSession(previous);
+        ClientRegistry.endSession(session);
+
+        assertEquals(ran, Collections.singletonList("current"));
+    }
+
+    @SuppressWarnings("deprecation")
+    private static MavenSession newSession() {
+        return new MavenSession(null, new DefaultMavenExecutionRequest(), new DefaultMavenExecutionResult(),
+                Collections.singletonList(new MavenProject()));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import com.github.lucapino.confluence.helpers.ContentDigest;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class FileChannelBodyTest {
+
+    private File file;
+    private byte[] data;
+
+    @BeforeMethod
+    public void createFile() throws IOException {
+        data = new byte[200000];
+        new Random(42).nextBytes(data);
+        file = Files.createTempFile("attachment", ".bin").toFile();
+        Files.write(file.toPath(), data);
+    }
+
+    @AfterMethod
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void sendsTheDigestComputedWhileSending() throws IOException {
+        FileChannelBody body = new FileChannelBody(file, file.getName(), null, true);
+        ContentBody comment = body.digestComment("release [sha256:", "]");
+        String expected = "release [sha256:" + ContentDigest.sha256(file) + "]";
+        assertEquals(comment.getContentLength(), expected.length());
+        for (int attempt = 0; attempt < 2; attempt++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            body.writeTo(out);
+            assertEquals(out.toByteArray(), data);
+            out.reset();
+            comment.writeTo(out);
+            assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), expected);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void rejectsTheDigestBeforeTheFile() throws IOException {
+        new FileChannelBody(file, file.getName(), null, true).digestComment("sha256:", "").writeTo(new ByteArrayOutputStream());
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void rejectsTheDigestOfAnUndigestedFile() {
+        new FileChannelBody(file, file.getName(), null).digestComment("sha256:", "");
+    }
+}
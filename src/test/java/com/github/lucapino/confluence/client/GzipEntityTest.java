@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class GzipEntityTest {
+
+    @Test
+    public void compressesTheWrappedEntity() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        AtomicLong compressed = new AtomicLong();
+        GzipEntity entity = new GzipEntity(new StringEntity(text.toString(), ContentType.TEXT_PLAIN), compressed::set);
+
+        assertEquals(entity.getContentEncoding().getValue(), "gzip");
+        assertEquals(entity.getContentLength(), -1);
+        assertTrue(entity.isChunked());
+        assertEquals(entity.getContentType().getValue(), ContentType.TEXT_PLAIN.toString());
+        for (int attempt = 0; attempt < 2; attempt++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entity.writeTo(out);
+            assertEquals(compressed.get(), out.size());
+            assertTrue(out.size() < text.length() / 2);
+            assertEquals(new String(gunzip(out.toByteArray()), StandardCharsets.ISO_8859_1), text.toString());
+        }
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+}
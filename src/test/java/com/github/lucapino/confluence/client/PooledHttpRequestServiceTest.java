@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import com.github.lucapino.confluence.FakeConfluenceServer;
+import com.github.lucapino.confluence.rest.core.api.domain.content.ContentBean;
+import com.github.lucapino.confluence.helpers.Timings;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.message.BasicHttpResponse;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class PooledHttpRequestServiceTest {
+
+    @Test
+    public void waitsTheSecondsOfRetryAfter() {
+        assertEquals(PooledHttpRequestService.retryDelay(throttled(" 7 "), 0), 7000);
+        assertEquals(PooledHttpRequestService.retryDelay(throttled("0"), 3), 0);
+        assertEquals(PooledHttpRequestService.retryDelay(throttled("-5"), 0), 0);
+    }
+
+    @Test
+    public void waitsUntilTheDateOfRetryAfter() {
+        long delay = PooledHttpRequestService.retryDelay(throttled(DateUtils.formatDate(new Date(System.currentTimeMillis() + 60000))), 0);
+        // the date has a one second precision
+        assertTrue(delay > 57000 && delay <= 60000, Long.toString(delay));
+        assertEquals(PooledHttpRequestService.retryDelay(throttled(DateUtils.formatDate(new Date(0))), 0), 0);
+    }
+
+    @Test
+    public void backsOffWithoutUsableRetryAfter() {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            long backoff = 500L << attempt;
+            long delay = PooledHttpRequestService.retryDelay(throttled("soon"), attempt);
+            assertTrue(delay >= backoff / 2 && delay <= backoff, attempt + ": " + delay);
+        }
+        long delay = PooledHttpRequestService.retryDelay(new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Unavailable"), 40);
+        assertTrue(delay >= 15000 && delay <= 30000, Long.toString(delay));
+    }
+
+    @Test
+    public void logsInOnceForConcurrentRequests() throws Exception {
+        try (FakeConfluenceServer server = new FakeConfluenceServer(8).sessions(60000);
+                PooledHttpRequestService requests = newService(server)) {
+            URI page = pageUri(server);
+
+            getConcurrently(requests, page, 16);
+
+            assertEquals(requests.getLoginCount(), 1);
+            assertEquals(server.getLoginCount(), 1);
+            assertEquals(requests.getSessionRefreshCount(), 0);
+        }
+    }
+
+    @Test
+    public void refreshesAnExpiredSessionOnce() throws Exception {
+        try (FakeConfluenceServer server = new FakeConfluenceServer(8).sessions(300);
+                PooledHttpRequestService requests = newService(server)) {
+            URI page = pageUri(server);
+            requests.executeGetRequest(page, ContentBean.class);
+            Thread.sleep(500);
+            // the next session outlives the test
+            server.sessions(60000);
+
+            // all of them are answered 401, then sent again in the new session
+            getConcurrently(requests, page, 16);
+
+            assertEquals(requests.getSessionRefreshCount(), 1);
+            assertEquals(requests.getLoginCount(), 2);
+            assertEquals(server.getLoginCount(), 2);
+        }
+    }
+
+    @Test
+    public void sendsTheCredentialsToAServerWithoutSessions() throws Exception {
+        try (FakeConfluenceServer server = new FakeConfluenceServer(8);
+                PooledHttpRequestService requests = newService(server)) {
+            URI page = pageUri(server);
+
+            getConcurrently(requests, page, 16);
+
+            // one per request once the first one found no session
+            assertEquals(requests.getLoginCount(), 16);
+            assertEquals(requests.getSessionRefreshCount(), 0);
+        }
+    }
+
+    @Test
+    public void recordsTheBytesOfACompressedUpload() throws Exception {
+        byte[] file = new byte[256 * 1024];
+        new Random(42).nextBytes(file);
+        try (FakeConfluenceServer server = new FakeConfluenceServer(2);
+                PooledHttpRequestService requests = newService(server)) {
+            URI attachments = URI.create(pageUri(server) + "/child/attachment");
+            Timings.reset();
+
+            // random bytes do not compress, the chunked request is a bit larger than the file
+            requests.executeUploadRequest(attachments, new ByteArrayBody(file, "random.bin"), (String) null, compressed -> {
+            }, Object.class);
+
+            long bytes = Long.parseLong(Timings.getSummary().get(1).trim().split("\\s+")[2]);
+            assertTrue(bytes > file.length && bytes < file.length + 4096, Long.toString(bytes));
+        } finally {
+            Timings.reset();
+        }
+    }
+
+    private static PooledHttpRequestService newService(FakeConfluenceServer server) {
+        return new PooledHttpRequestService(URI.create(server.getUrl()), "user", "secret", null, 8);
+    }
+
+    private static URI pageUri(FakeConfluenceServer server) {
+        return URI.create(server.getUrl() + "/rest/api/content/" + server.addPage("DOC", "Home", "<p>home</p>"));
+    }
+
+    /**
+     * Sends {@code count} requests at once and fails if one of them fails.
+     */
+    private static void getConcurrently(PooledHttpRequestService requests, URI page, int count) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<ContentBean>> results = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                Callable<ContentBean> get = () -> {
+                    start.await();
+                    return requests.executeGetRequest(page, ContentBean.class);
+                };
+                results.add(executor.submit(get));
+            }
+            start.countDown();
+            for (Future<ContentBean> result : results) {
+                assertEquals(result.get().getTitle(), "Home");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static HttpResponse throttled(String retryAfter) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 429, "Too Many Requests");
+        response.addHeader("Retry-After", retryAfter);
+        return response;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.client;
+
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    @Test
+    public void grantsTheBurstAtOnce() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 5);
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            bucket.acquire();
+        }
+        assertTrue(elapsedMillis(start) < 500);
+    }
+
+    @Test
+    public void limitsTheRateAfterTheBurst() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(20, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            bucket.acquire();
+        }
+        // the first permit is free, the next five take 50 ms each
+        long elapsed = elapsedMillis(start);
+        assertTrue(elapsed >= 240, Long.toString(elapsed));
+    }
+
+    @Test
+    public void doesNotLimitWithoutRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(0, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 10000; i++) {
+            bucket.acquire();
+        }
+        assertTrue(elapsedMillis(start) < 500);
+    }
+
+    @Test
+    public void holdsEveryRequestDuringAPause() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(0, 1);
+        bucket.pause(200);
+        // a shorter pause does not shorten the current one
+        bucket.pause(10);
+        long start = System.nanoTime();
+        bucket.acquire();
+        long elapsed = elapsedMillis(start);
+        assertTrue(elapsed >= 180, Long.toString(elapsed));
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
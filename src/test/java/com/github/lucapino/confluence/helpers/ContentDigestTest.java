@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+public class ContentDigestTest {
+
+    @Test
+    public void ignoresLineEndingsAndTrailingSpaces() {
+        assertEquals(ContentDigest.of("<p>a</p>  \r\n<p>b</p>\r\n"), ContentDigest.of("<p>a</p>\n<p>b</p>"));
+    }
+
+    @Test
+    public void ignoresBlanksBeforeTheEndOfEmptyTags() {
+        assertEquals(ContentDigest.of("<p>a<br />b</p>"), ContentDigest.of("<p>a<br/>b</p>"));
+        assertEquals(ContentDigest.of("<ri:page ri:content-title=\"x\" />"), ContentDigest.of("<ri:page ri:content-title=\"x\"/>"));
+    }
+
+    @Test
+    public void keepsBlanksBetweenInlineElements() {
+        assertNotEquals(ContentDigest.of("<p><strong>a</strong> <em>b</em></p>"),
+                ContentDigest.of("<p><strong>a</strong><em>b</em></p>"));
+    }
+
+    @Test
+    public void keepsBlanksInCodeBlocks() {
+        assertNotEquals(ContentDigest.of("<pre>a\n    <b>x</b></pre>"), ContentDigest.of("<pre>a\n<b>x</b></pre>"));
+        assertNotEquals(ContentDigest.of("<ac:plain-text-body><![CDATA[if (a) {\n    b();\n}]]></ac:plain-text-body>"),
+                ContentDigest.of("<ac:plain-text-body><![CDATA[if (a) {\nb();\n}]]></ac:plain-text-body>"));
+    }
+
+    @Test
+    public void treatsNullAsEmpty() {
+        assertEquals(ContentDigest.normalize(null), "");
+        assertEquals(ContentDigest.of(null), ContentDigest.of("  \n"));
+    }
+
+    @Test
+    public void digestsFilesLikeBytes() throws Exception {
+        byte[] data = new byte[200000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        File file = File.createTempFile("digest", ".bin");
+        try {
+            Files.write(file.toPath(), data);
+            assertEquals(ContentDigest.sha256(file), ContentDigest.sha256(data));
+        } finally {
+            file.delete();
+        }
+        assertEquals(ContentDigest.sha256("abc".getBytes(StandardCharsets.UTF_8)),
+                "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+    }
+}
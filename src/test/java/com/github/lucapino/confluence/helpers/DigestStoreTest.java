@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.codehaus.plexus.util.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class DigestStoreTest {
+
+    private File directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("digests").toFile();
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void matchesTheDigestOfThePublishedVersion() throws IOException {
+        File file = new File(directory, "digests.properties");
+        String key = DigestStore.key("http://localhost:8090", "DOC", "Home");
+        DigestStore store = new DigestStore(file);
+        store.put(key, "abc", 3);
+        store.save();
+
+        DigestStore reloaded = new DigestStore(file);
+        assertTrue(reloaded.matches(key, "abc", 3));
+        // edited on the server since
+        assertFalse(reloaded.matches(key, "abc", 4));
+        assertFalse(reloaded.matches(key, "def", 3));
+        assertEquals(key, "http://localhost:8090|DOC|Home");
+    }
+
+    @Test
+    public void tracksTheInputsOfAnEntry() throws IOException {
+        File file = new File(directory, "digests.properties");
+        String inputs = new DigestStore.Inputs().add("template", "abc").addAll("property", null).digest();
+        DigestStore store = new DigestStore(file);
+        store.put("page", "def", 7, inputs, "42");
+        store.put("attachment", null, null, inputs, null);
+        store.save();
+
+        DigestStore reloaded = new DigestStore(file);
+        assertTrue(reloaded.isUpToDate("page", inputs));
+        assertTrue(reloaded.matches("page", "def", 7));
+        assertEquals(reloaded.get("page").getId(), "42");
+        assertTrue(reloaded.isUpToDate("attachment", inputs));
+        assertNull(reloaded.get("attachment").getVersion());
+        assertFalse(reloaded.isUpToDate("page", new DigestStore.Inputs().add("template", "abd").digest()));
+        assertFalse(reloaded.isUpToDate("page", null));
+        assertFalse(reloaded.isUpToDate("missing", inputs));
+
+        // publishing without inputs forgets them
+        reloaded.put("page", "ghi", 8);
+        assertFalse(reloaded.isUpToDate("page", inputs));
+        assertTrue(reloaded.matches("page", "ghi", 8));
+    }
+
+    @Test
+    public void digestsTheInputsInOrder() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("b", "2");
+        properties.put("a", "1");
+        Map<String, String> reordered = new TreeMap<>(properties);
+        assertEquals(new DigestStore.Inputs().addAll("property", properties).digest(),
+                new DigestStore.Inputs().addAll("property", reordered).digest());
+        assertNotEquals(new DigestStore.Inputs().add("a", 1).add("b", 2).digest(),
+                new DigestStore.Inputs().add("b", 2).add("a", 1).digest());
+    }
+}
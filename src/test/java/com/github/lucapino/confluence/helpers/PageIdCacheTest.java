@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.codehaus.plexus.util.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class PageIdCacheTest {
+
+    private static final String URL = "http://localhost:8090";
+
+    private File directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("page-ids").toFile();
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void storesIdsUntilTheyExpire() throws Exception {
+        PageIdCache cache = PageIdCache.forFile(new File(directory, "ids.properties"), 3600);
+        cache.put(URL, "DOC", "Home", "42", 7);
+
+        PageIdCache.Entry entry = cache.get(URL, "DOC", "Home");
+        assertEquals(entry.getId(), "42");
+        assertEquals(entry.getVersion(), Integer.valueOf(7));
+        assertNull(cache.get(URL, "DOC", "Other"));
+
+        PageIdCache expired = PageIdCache.forFile(new File(directory, "expired.properties"), 0);
+        expired.put(URL, "DOC", "Home", "42", 7);
+        Thread.sleep(5);
+        assertNull(expired.get(URL, "DOC", "Home"));
+    }
+
+    @Test
+    public void isSharedPerFileAndSavedOnce() throws Exception {
+        File file = new File(directory, "ids.properties");
+        PageIdCache cache = PageIdCache.forFile(file, 3600);
+        assertSame(PageIdCache.forFile(file, 3600), cache);
+        for (int i = 0; i < 100; i++) {
+            cache.put(URL, "DOC", "Page " + i, Integer.toString(i), null);
+        }
+        assertFalse(file.exists());
+
+        PageIdCache.saveAll();
+        assertTrue(file.isFile());
+        cache.invalidate(URL, "DOC", "Page 1");
+        cache.save();
+
+        PageIdCache reloaded = PageIdCache.forFile(file, 60);
+        assertEquals(reloaded.get(URL, "DOC", "Page 99").getId(), "99");
+        assertNull(reloaded.get(URL, "DOC", "Page 99").getVersion());
+        assertNull(reloaded.get(URL, "DOC", "Page 1"));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import org.codehaus.plexus.util.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class PropertiesFileTest {
+
+    private File directory;
+    private File file;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("properties").toFile();
+        file = new File(directory, "store/entries.properties");
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void writesNothingUntilSaved() throws IOException {
+        PropertiesFile properties = new PropertiesFile(file, "test");
+        properties.set("a", "1");
+        assertEquals(properties.get("a"), "1");
+        assertFalse(file.exists());
+
+        properties.save();
+        assertEquals(load().getProperty("a"), "1");
+        assertEquals(new PropertiesFile(file, "test").get("a"), "1");
+    }
+
+    @Test
+    public void keepsTheEntriesSavedByAnotherBuild() throws IOException {
+        PropertiesFile first = new PropertiesFile(file, "test");
+        PropertiesFile second = new PropertiesFile(file, "test");
+        first.set("a", "1");
+        first.set("shared", "first");
+        second.set("b", "2");
+        second.set("shared", "second");
+
+        first.save();
+        second.save();
+
+        Properties saved = load();
+        assertEquals(saved.getProperty("a"), "1");
+        assertEquals(saved.getProperty("b"), "2");
+        assertEquals(saved.getProperty("shared"), "second");
+        // the other build's entries are visible after a save
+        assertEquals(second.get("a"), "1");
+    }
+
+    @Test
+    public void removesOnlyTheRemovedKeys() throws IOException {
+        PropertiesFile first = new PropertiesFile(file, "test");
+        first.set("page|1", "x");
+        first.set("page|2", "y");
+        first.set("other|1", "z");
+        first.save();
+
+        PropertiesFile second = new PropertiesFile(file, "test");
+        first.set("page|3", "w");
+        first.save();
+        assertTrue(second.removeIf(key -> key.startsWith("page|")));
+        assertFalse(second.remove("missing"));
+        second.save();
+
+        Properties saved = load();
+        assertNull(saved.getProperty("page|1"));
+        assertNull(saved.getProperty("page|2"));
+        // added after the second store was loaded
+        assertEquals(saved.getProperty("page|3"), "w");
+        assertEquals(saved.getProperty("other|1"), "z");
+    }
+
+    @Test
+    public void leavesNoTemporaryFiles() throws IOException {
+        PropertiesFile properties = new PropertiesFile(file, "test");
+        for (int i = 0; i < 5; i++) {
+            properties.set("key", Integer.toString(i));
+            properties.save();
+        }
+        assertEquals(file.getParentFile().list(), new String[]{"entries.properties"});
+    }
+
+    private Properties load() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class StorageSectionTest {
+
+    @Test
+    public void spansFromTheAnchorToTheNextOne() {
+        String page = "<p>intro</p>" + StorageSection.anchor("notes") + "<p>first</p><ul><li>second</li></ul>"
+                + StorageSection.anchor("other") + "<p>other</p>";
+
+        assertEquals(section(page, "notes"), "<p>first</p><ul><li>second</li></ul>");
+        assertEquals(section(page, "other"), "<p>other</p>");
+        assertNull(StorageSection.find(page, "missing"));
+    }
+
+    @Test
+    public void ignoresTheMarkupInCommentsAndCdata() {
+        String page = StorageSection.anchor("notes")
+                + "<!-- " + StorageSection.anchor("commented") + " <div> -->"
+                + "<ac:structured-macro ac:name=\"code\"><ac:plain-text-body><![CDATA[<p>" + StorageSection.anchor("code")
+                + "]]></ac:plain-text-body></ac:structured-macro>"
+                + StorageSection.anchor("next");
+
+        assertEquals(section(page, "notes"), page.substring(StorageSection.anchor("notes").length(),
+                page.indexOf(StorageSection.anchor("next"))));
+        assertNull(StorageSection.find(page, "commented"));
+        assertNull(StorageSection.find(page, "code"));
+    }
+
+    @Test
+    public void readsTheAnchorNameFromCdata() {
+        String page = "<p><ac:structured-macro ac:name=\"anchor\"><ac:parameter ac:name=\"\"><![CDATA[a&b]]>"
+                + "</ac:parameter></ac:structured-macro></p><p>text</p>";
+
+        assertEquals(section(page, "a&b"), "<p>text</p>");
+        assertEquals(section("<p><ac:structured-macro ac:name=\"anchor\"><ac:parameter ac:name=\"\">say \"hi\""
+                + "</ac:parameter></ac:structured-macro></p><p>text</p>", "say \"hi\""), "<p>text</p>");
+    }
+
+    @Test
+    public void startsAfterTheTopLevelBlockOfANestedAnchor() {
+        String nested = "<table><tbody><tr><td><div>" + StorageSection.anchor("cell") + "</div></td></tr></tbody></table>";
+        String page = "<p>intro</p>" + nested + "<p>text</p>"
+                + "<ac:structured-macro ac:name=\"expand\"><ac:rich-text-body>" + StorageSection.anchor("expanded")
+                + "</ac:rich-text-body></ac:structured-macro><p>end</p>";
+
+        assertEquals(section(page, "cell"), "<p>text</p>");
+        assertEquals(section(page, "expanded"), "<p>end</p>");
+    }
+
+    @Test
+    public void ignoresTheClosingBracketsInQuotedAttributes() {
+        String page = StorageSection.anchor("notes") + "<p title=\"a > b\" class='c > d'>text</p>"
+                + "<p><ac:link><ri:page ri:content-title=\"x>y\" /></ac:link></p>" + StorageSection.anchor("next");
+
+        assertEquals(section(page, "notes"), "<p title=\"a > b\" class='c > d'>text</p>"
+                + "<p><ac:link><ri:page ri:content-title=\"x>y\" /></ac:link></p>");
+    }
+
+    @Test
+    public void endsAtTheEndOfThePage() {
+        String page = "<p>intro</p>" + StorageSection.anchor("notes");
+
+        StorageSection section = StorageSection.find(page, "notes");
+        assertEquals(section.getStart(), page.length());
+        assertEquals(section.getEnd(), page.length());
+        assertEquals(section(StorageSection.anchor("a<b") + "<p>text</p>", "a<b"), "<p>text</p>");
+    }
+
+    private static String section(String page, String name) {
+        StorageSection section = StorageSection.find(page, name);
+        return page.substring(section.getStart(), section.getEnd());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.codehaus.plexus.util.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TemplateEvaluatorTest {
+
+    private File directory;
+    private ExecutorService executor;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("templates").toFile();
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void rendersABatchInOrderWithSeparateContexts() throws Exception {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            File file = new File(directory, "page" + i + ".vm");
+            Files.write(file.toPath(), ("#set($n = " + i + ")<p>$greeting $n</p>").getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+        HashMap<Object, Object> properties = new HashMap<>();
+        properties.put("greeting", "Hello");
+
+        Map<File, String> rendered = new TemplateEvaluator(null).evaluateAll(files, properties, executor);
+
+        assertEquals(new ArrayList<>(rendered.keySet()), files);
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals(rendered.get(files.get(i)), "<p>Hello " + i + "</p>");
+        }
+        // the variables set by a template do not leak into the next one
+        assertEquals(new TemplateEvaluator(null).evaluate("$!n", null), "");
+        assertFalse(executor.isShutdown());
+    }
+
+    @Test
+    public void reparsesAChangedTemplate() throws Exception {
+        File file = new File(directory, "page.vm");
+        Files.write(file.toPath(), "first".getBytes(StandardCharsets.UTF_8));
+        TemplateEvaluator evaluator = new TemplateEvaluator(null);
+        assertEquals(evaluator.evaluate(file, null), "first");
+
+        Files.write(file.toPath(), "second version".getBytes(StandardCharsets.UTF_8));
+        assertEquals(evaluator.evaluate(file, null), "second version");
+    }
+
+    @Test
+    public void reparsesATemplateRewrittenWithTheSameLengthAndTime() throws Exception {
+        File file = new File(directory, "version.vm");
+        Files.write(file.toPath(), "version 1.0.1".getBytes(StandardCharsets.UTF_8));
+        long lastModified = file.lastModified();
+        TemplateEvaluator evaluator = new TemplateEvaluator(null);
+        assertEquals(evaluator.evaluate(file, null), "version 1.0.1");
+
+        // regenerated within the granularity of the file system clock
+        Files.write(file.toPath(), "version 1.0.2".getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.setLastModified(lastModified));
+        assertEquals(evaluator.evaluate(file, null), "version 1.0.2");
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.codehaus.plexus.util.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class UploadStateTest {
+
+    private File directory;
+
+    @BeforeMethod
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("upload-state").toFile();
+    }
+
+    @AfterMethod
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void remembersUploadsUntilTheFileChanges() throws IOException {
+        File stateFile = new File(directory, "state.properties");
+        File attachment = new File(directory, "a.txt");
+        Files.write(attachment.toPath(), "first".getBytes("UTF-8"));
+
+        new UploadState(stateFile).uploaded("42", attachment);
+
+        UploadState state = new UploadState(stateFile);
+        assertTrue(state.isUploaded("42", attachment));
+        assertFalse(state.isUploaded("43", attachment));
+        Files.write(attachment.toPath(), "changed".getBytes("UTF-8"));
+        assertFalse(state.isUploaded("42", attachment));
+    }
+
+    @Test
+    public void forgetsTheUploadsOfACompletedPage() throws IOException {
+        File stateFile = new File(directory, "state.properties");
+        File attachment = new File(directory, "a.txt");
+        Files.write(attachment.toPath(), "content".getBytes("UTF-8"));
+        UploadState state = new UploadState(stateFile);
+        state.uploaded("42", attachment);
+        state.uploaded("420", attachment);
+
+        state.completed("42");
+
+        UploadState reloaded = new UploadState(stateFile);
+        assertFalse(reloaded.isUploaded("42", attachment));
+        assertTrue(reloaded.isUploaded("420", attachment));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 Luca Tagliani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.lucapino.confluence.helpers;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class WikiMarkupConverterTest {
+
+    @Test
+    public void convertsHeadingsAndParagraphs() {
+        assertEquals(WikiMarkupConverter.toStorage("h1. Title & more\n\nSome *bold* and _italic_ text\nsecond line"),
+                "<h1>Title &amp; more</h1><p>Some <strong>bold</strong> and <em>italic</em> text<br />second line</p>");
+    }
+
+    @Test
+    public void convertsNestedAndMixedLists() {
+        assertEquals(WikiMarkupConverter.toStorage("* one\n** nested\n# mixed\n* two"),
+                "<ul><li>one<ul><li>nested</li></ul></li></ul><ol><li>mixed</li></ol><ul><li>two</li></ul>");
+    }
+
+    @Test
+    public void convertsTables() {
+        assertEquals(WikiMarkupConverter.toStorage("||a||b||\n|1|[Home]|"),
+                "<table><tbody><tr><th>a</th><th>b</th></tr><tr><td>1</td>"
+                + "<td><ac:link><ri:page ri:content-title=\"Home\" /></ac:link></td></tr></tbody></table>");
+    }
+
+    @Test
+    public void convertsLinks() {
+        assertEquals(WikiMarkupConverter.toStorage("See [docs|http://x.org/?a=1&b=2] or http://y.org/?q=1&r=2 now"),
+                "<p>See <a href=\"http://x.org/?a=1&amp;b=2\">docs</a> or "
+                + "<a href=\"http://y.org/?q=1&amp;r=2\">http://y.org/?q=1&amp;r=2</a> now</p>");
+        assertEquals(WikiMarkupConverter.toStorage("[Docs|DOC:Home]"),
+                "<p><ac:link><ri:page ri:space-key=\"DOC\" ri:content-title=\"Home\" />"
+                + "<ac:plain-text-link-body><![CDATA[Docs]]></ac:plain-text-link-body></ac:link></p>");
+    }
+
+    @Test
+    public void convertsMonospaceAndLineBreaks() {
+        assertEquals(WikiMarkupConverter.toStorage("{{mono <x>}}"), "<p><code>mono &lt;x&gt;</code></p>");
+        assertEquals(WikiMarkupConverter.toStorage("a\\\\b"), "<p>a<br />b</p>");
+    }
+
+    @Test
+    public void convertsCodeMacro() {
+        assertEquals(WikiMarkupConverter.toStorage("{code:java|title=A & B}\nif (a < b) { x(\"]]>\"); }\n{code}"),
+                "<ac:structured-macro ac:name=\"code\"><ac:parameter ac:name=\"language\">java</ac:parameter>"
+                + "<ac:parameter ac:name=\"title\">A &amp; B</ac:parameter>"
+                + "<ac:plain-text-body><![CDATA[if (a < b) { x(\"]]]]><![CDATA[>\"); }]]></ac:plain-text-body>"
+                + "</ac:structured-macro>");
+    }
+
+    @Test
+    public void escapesJiraIssuesParameters() {
+        assertEquals(WikiMarkupConverter.toStorage("{jiraissues:url=http://jira/sr?jql=a&tempMax=5|title=Bugs & fixes}"),
+                "<ac:structured-macro ac:name=\"jiraissues\"><ac:parameter ac:name=\"title\">Bugs &amp; fixes</ac:parameter>"
+                + "<ac:parameter ac:name=\"url\">http://jira/sr?jql=a&amp;tempMax=5</ac:parameter></ac:structured-macro>");
+    }
+
+    @Test
+    public void convertsExpandAndTocMacros() {
+        assertEquals(WikiMarkupConverter.toStorage("{expand:More}\nhidden *text*\n{expand}"),
+                "<ac:structured-macro ac:name=\"expand\"><ac:parameter ac:name=\"title\">More</ac:parameter>"
+                + "<ac:rich-text-body><p>hidden <strong>text</strong></p></ac:rich-text-body></ac:structured-macro>");
+        assertEquals(WikiMarkupConverter.toStorage("{toc:minLevel=2|maxLevel=3}"),
+                "<ac:structured-macro ac:name=\"toc\"><ac:parameter ac:name=\"minLevel\">2</ac:parameter>"
+                + "<ac:parameter ac:name=\"maxLevel\">3</ac:parameter></ac:structured-macro>");
+    }
+
+    @Test
+    public void leavesUnsupportedMarkupToTheServer() {
+        assertNull(WikiMarkupConverter.toStorage("{info}x{info}"));
+        assertNull(WikiMarkupConverter.toStorage("a :) b"));
+        assertNull(WikiMarkupConverter.toStorage("!image.png!"));
+        assertNull(WikiMarkupConverter.toStorage("a -- b"));
+        assertNull(WikiMarkupConverter.toStorage("[^attachment.txt]"));
+        assertNull(WikiMarkupConverter.toStorage("{code}\nnever closed"));
+    }
+}